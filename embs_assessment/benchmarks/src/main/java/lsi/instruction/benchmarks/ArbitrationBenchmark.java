@@ -0,0 +1,96 @@
+package lsi.instruction.benchmarks;
+
+/*
+ *
+ * Arbitration performed by SingleSharedMemoryBus on every cycle with pending requests, for every policy and for
+ * 1 to 256 masters.
+ *
+ * Requests are replayed from a table of random request sets, each master requesting with the probability given by
+ * the "load" parameter (at least one master always requests, as the bus does not arbitrate otherwise). Building the
+ * request set is included, as the bus rebuilds it on every cycle.
+ *
+ */
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import lsi.instruction.ArbitrationPolicies;
+import lsi.instruction.ArbitrationPolicy;
+import lsi.instruction.RequestMask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArbitrationBenchmark {
+
+	private static final int PATTERNS = 1024; // power of two, indices are masked
+
+	@Param({"1", "2", "4", "16", "64", "256"})
+	public int masters;
+
+	@Param({ArbitrationPolicies.FIXED_PRIORITY, ArbitrationPolicies.ROUND_ROBIN, ArbitrationPolicies.WEIGHTED_ROUND_ROBIN,
+			ArbitrationPolicies.TDMA, ArbitrationPolicies.LOTTERY})
+	public String policy;
+
+	@Param({"0.5"})
+	public double load;
+
+	private ArbitrationPolicy arbitration;
+	private RequestMask requests;
+	private int[][] patterns; // requesting masters of every pattern
+	private long cycle;
+
+
+
+	@Setup
+	public void setup(){
+
+		arbitration = ArbitrationPolicies.create(policy, masters, null, null, 0);
+		arbitration.initialize(masters);
+		requests = new RequestMask(masters);
+
+		Random random = new Random(0);
+		patterns = new int[PATTERNS][];
+		int[] requesting = new int[masters];
+
+		for(int p=0;p<PATTERNS;p++){
+			int count = 0;
+			for(int i=0;i<masters;i++){
+				if(random.nextDouble() < load) requesting[count++] = i;
+			}
+			if(count == 0) requesting[count++] = random.nextInt(masters);
+
+			patterns[p] = new int[count];
+			System.arraycopy(requesting, 0, patterns[p], 0, count);
+		}
+	}
+
+
+
+	@Benchmark
+	public int arbitrate(){
+
+		int[] pattern = patterns[(int)(cycle & (PATTERNS - 1))];
+
+		requests.clear();
+		for(int i=0;i<pattern.length;i++) requests.set(pattern[i]);
+
+		return arbitration.arbitrate(requests, cycle++);
+	}
+
+}
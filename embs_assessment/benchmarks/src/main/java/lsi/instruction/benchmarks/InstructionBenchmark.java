@@ -0,0 +1,98 @@
+package lsi.instruction.benchmarks;
+
+/*
+ *
+ * Building and reading back the RecordTokens exchanged by the actors on every cycle.
+ *
+ * - getToken: token of an existing Instruction, built on first use and reused afterwards
+ * - newToken: token of a new Instruction every time, i.e. the cost of a cache miss
+ * - valueOf: interned token of a memory word, as sent by MemoryController on every READ
+ * - fromToken: fields of a received token, as decoded by the bus and processors
+ *
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import lsi.instruction.Instruction;
+import lsi.instruction.InstructionToken;
+import lsi.instruction.MemoryImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ptolemy.data.RecordToken;
+import ptolemy.kernel.util.IllegalActionException;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InstructionBenchmark {
+
+	private static final int WORDS = 1024; // power of two, indices are masked
+
+	private Instruction[] instructions;
+	private long[] words;
+	private RecordToken[] tokens;
+	private int next;
+
+
+
+	@Setup
+	public void setup() throws IllegalActionException{
+
+		instructions = new Instruction[WORDS];
+		words = new long[WORDS];
+		tokens = new RecordToken[WORDS];
+
+		for(int i=0;i<WORDS;i++){
+			int type = i % 4; // EXECUTE, READ, WRITE, JUMP
+			instructions[i] = new Instruction(type, i, i * 7, i % 13);
+			words[i] = MemoryImage.pack(type, i, i * 7, i % 13);
+			tokens[i] = instructions[i].getToken();
+		}
+	}
+
+
+	private int index(){
+		return next++ & (WORDS - 1);
+	}
+
+
+
+	@Benchmark
+	public RecordToken getToken() throws IllegalActionException{
+		return instructions[index()].getToken();
+	}
+
+
+	@Benchmark
+	public RecordToken newToken() throws IllegalActionException{
+		int i = index();
+		return new Instruction(Instruction.READ, i, i, 0).getToken();
+	}
+
+
+	@Benchmark
+	public RecordToken valueOf() throws IllegalActionException{
+		return InstructionToken.valueOf(words[index()]);
+	}
+
+
+	@Benchmark
+	public int fromToken(){
+		Instruction instruction = Instruction.fromToken(tokens[index()]);
+		return instruction.type + instruction.address;
+	}
+
+}
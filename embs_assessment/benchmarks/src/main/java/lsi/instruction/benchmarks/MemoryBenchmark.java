@@ -0,0 +1,137 @@
+package lsi.instruction.benchmarks;
+
+/*
+ *
+ * Loading memory files, and the per-request work of MemoryController.
+ *
+ * - parseText / loadBinary: loading the memory file into a new image, from the 5-column text format and from the
+ *   binary image it converts to (see lsi.instruction.MemoryImageFile), respectively
+ * - copy: starting a controller's memory from a cached image, as done upon every initialisation
+ * - read: READ request answered with the token of the memory word
+ * - write: WRITE request decoded from its token and applied to the memory
+ *
+ * The memory file is given by the "file" parameter, relative to the working directory (../memory.txt when run from
+ * the benchmarks directory); "test" uses the test program of MemoryController instead, with no parsing benchmark.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import lsi.instruction.Instruction;
+import lsi.instruction.InstructionToken;
+import lsi.instruction.MemoryImage;
+import lsi.instruction.MemoryImageFile;
+import lsi.instruction.TestProgram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ptolemy.data.RecordToken;
+import ptolemy.kernel.util.IllegalActionException;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemoryBenchmark {
+
+	private static final int REQUESTS = 4096; // power of two, indices are masked
+
+	@Param({"../memory.txt"})
+	public String file;
+
+	private File text, binary;
+	private MemoryImage image, memory;
+	private int[] addresses;
+	private RecordToken[] writes;
+	private int next;
+
+
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, IllegalActionException{
+
+		image = new MemoryImage();
+		if(file.equals("test")) TestProgram.write(image);
+		else{
+			text = new File(file);
+			MemoryImageFile.readText(text, image);
+
+			binary = File.createTempFile("memory", ".img");
+			MemoryImageFile.writeBinary(image, binary);
+		}
+		image.freeze();
+		memory = new MemoryImage(image);
+
+		Random random = new Random(0);
+		addresses = new int[REQUESTS];
+		writes = new RecordToken[REQUESTS];
+		for(int i=0;i<REQUESTS;i++){
+			addresses[i] = random.nextInt(image.size());
+			writes[i] = new Instruction(Instruction.WRITE, random.nextInt(65536), addresses[i], -1).getToken();
+		}
+	}
+
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		if(binary!=null) binary.delete();
+	}
+
+
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public MemoryImage parseText() throws IOException{
+		if(text==null) return null;
+		MemoryImage loaded = new MemoryImage();
+		MemoryImageFile.readText(text, loaded);
+		return loaded;
+	}
+
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public MemoryImage loadBinary() throws IOException{
+		if(binary==null) return null;
+		MemoryImage loaded = new MemoryImage();
+		MemoryImageFile.readBinary(binary, loaded);
+		return loaded;
+	}
+
+
+	@Benchmark
+	public MemoryImage copy(){
+		return new MemoryImage(image);
+	}
+
+
+	@Benchmark
+	public RecordToken read() throws IllegalActionException{
+		return InstructionToken.valueOf(memory.getWord(addresses[next++ & (REQUESTS - 1)]));
+	}
+
+
+	@Benchmark
+	public void write(){
+		Instruction t = Instruction.fromToken(writes[next++ & (REQUESTS - 1)]);
+		memory.write(t.address, t.data);
+	}
+
+}
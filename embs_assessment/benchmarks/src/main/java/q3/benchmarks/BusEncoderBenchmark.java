@@ -0,0 +1,76 @@
+//Y3606797
+package q3.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import q3.BusEncoder;
+import q3.BusEncoders;
+
+/**
+ * Transition counting done by {@link q3.TransitionCounter} for every bus word, i.e. the Hamming distance between
+ * consecutive bus states, without coding ({@code none}) and with bus-invert and the other coding schemes.
+ * <p>
+ * Words are replayed from a table of either random values, as seen on a data sub-bus, or mostly sequential ones,
+ * as seen on an address sub-bus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BusEncoderBenchmark {
+
+    /**
+     * Number of words replayed, a power of two as indices are masked.
+     */
+    private static final int WORDS = 4096;
+
+    @Param({BusEncoders.NONE, BusEncoders.INVERT, "invert:4", BusEncoders.T0, BusEncoders.GRAY})
+    public String encoding;
+
+    @Param({"16"})
+    public int width;
+
+    @Param({"random", "sequential"})
+    public String traffic;
+
+    private BusEncoder encoder;
+    private long[] words;
+    private int next;
+
+    @Setup
+    public void setup() {
+        encoder = BusEncoders.create(encoding, width);
+
+        Random random = new Random(0);
+        long mask = (1L << width) - 1;
+        words = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            if (traffic.equals("random")) {
+                words[i] = random.nextLong() & mask;
+            } else {
+                //runs of consecutive addresses, broken by the occasional jump
+                words[i] = (random.nextInt(8) == 0 ? random.nextLong() : (i == 0 ? 0 : words[i - 1] + 1)) & mask;
+            }
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        return encoder.encode(words[next++ & (WORDS - 1)]);
+    }
+}
@@ -0,0 +1,124 @@
+package lsi.instruction;
+
+/*
+ *
+ * Builds discrete-event models of the processor/bus/memory system in code, the way the MoML models of
+ * /ptolemy_models are put together in Vergil, and runs them.
+ *
+ * The model holds a DEDirector and a Clock ticking every time unit from time 0, which drives the clk port of every
+ * clocked actor added. The director stops after the given number of cycles, so that the model goes through the same
+ * cycles as SystemSimulator.run() does. When idle cycles are skipped (see lsi.instruction.ClockedActor), the clock is
+ * left out and the actors compute their ticks from their default "clock period" and "clock offset", which match it.
+ *
+ * Ports and parameters are looked up by name, as in MoML.
+ *
+ */
+
+import ptolemy.actor.Manager;
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.TypedIORelation;
+import ptolemy.actor.lib.Clock;
+import ptolemy.data.expr.Parameter;
+import ptolemy.domains.de.kernel.DEDirector;
+import ptolemy.kernel.ComponentEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.KernelException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.NamedObj;
+import ptolemy.kernel.util.Workspace;
+
+public class ModelBuilder {
+
+	protected final Workspace workspace = new Workspace();
+	protected final TypedCompositeActor top;
+	protected final boolean skipIdleCycles;
+	protected TypedIORelation clock; // null if idle cycles are skipped
+
+
+
+	public ModelBuilder(long cycles, boolean skipIdleCycles) throws IllegalActionException, NameDuplicationException{
+
+		this.skipIdleCycles = skipIdleCycles;
+
+		top = new TypedCompositeActor(workspace);
+		top.setName("system");
+
+		DEDirector director = new DEDirector(top, "director");
+		set(director, "stopTime", Long.toString(cycles - 1)); // ticks at 0 .. cycles - 1
+
+		if(!skipIdleCycles){
+			Clock source = new Clock(top, "clock");
+			set(source, "period", "1.0");
+			set(source, "offsets", "{0.0}");
+			set(source, "values", "{1}");
+
+			clock = new TypedIORelation(top, "clk");
+			source.output.link(clock);
+		}
+	}
+
+
+
+	public InstructionProcessor addProcessor(String name, int initialPC) throws IllegalActionException, NameDuplicationException{
+
+		InstructionProcessor processor = new InstructionProcessor(top, name);
+		set(processor, "initial PC", Integer.toString(initialPC));
+		return clocked(processor);
+	}
+
+	public SingleSharedMemoryBus addBus(String name) throws IllegalActionException, NameDuplicationException{
+		return clocked(new SingleSharedMemoryBus(top, name));
+	}
+
+	// memoryFile: a memory file, or "test" for the test program
+	public MemoryController addMemory(String name, String memoryFile) throws IllegalActionException, NameDuplicationException{
+
+		MemoryController memory = new MemoryController(top, name);
+		set(memory, "memory file", memoryFile);
+		return clocked(memory);
+	}
+
+	public ProcessorCache addCache(String name) throws IllegalActionException, NameDuplicationException{
+		return clocked(new ProcessorCache(top, name));
+	}
+
+
+	protected <A extends ClockedActor> A clocked(A actor) throws IllegalActionException{
+
+		if(skipIdleCycles) set(actor, "skip idle cycles", "true");
+		else port(actor, "clk").link(clock);
+		return actor;
+	}
+
+
+
+	public void connect(ComponentEntity from, String output, ComponentEntity to, String input) throws IllegalActionException{
+		top.connect(port(from, output), port(to, input));
+	}
+
+	public static TypedIOPort port(ComponentEntity actor, String name) throws IllegalActionException{
+
+		TypedIOPort port = (TypedIOPort)actor.getPort(name);
+		if(port==null) throw new IllegalActionException(actor, "no port named "+name);
+		return port;
+	}
+
+	public static void set(NamedObj container, String name, String expression) throws IllegalActionException{
+
+		Parameter parameter = (Parameter)container.getAttribute(name);
+		if(parameter==null) throw new IllegalActionException(container, "no parameter named "+name);
+		parameter.setExpression(expression);
+	}
+
+
+
+	// runs the model to its stop time, wrapping up every actor
+	public void run() throws KernelException{
+
+		Manager manager = new Manager(workspace, "manager");
+		top.setManager(manager);
+		manager.execute();
+	}
+
+}
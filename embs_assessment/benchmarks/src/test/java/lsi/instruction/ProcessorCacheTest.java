@@ -0,0 +1,102 @@
+package lsi.instruction;
+
+/*
+ *
+ * Runs cache-coherent systems under Ptolemy: the two loops of the test program, each processor behind a private
+ * ProcessorCache whose snoop ports are connected to the bus, as described in lsi.instruction.ProcessorCache.
+ *
+ * Building and running the model checks that the snoop ports do not close a zero-delay loop (the director rejects
+ * causality loops upon initialisation). The caches must then see each other's transactions: with write-through,
+ * every WRITE of the program reaches memory; with write-back, the loops write to the same line (20 to 23) and keep
+ * invalidating each other's copy.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ProcessorCacheTest {
+
+	private static final int[] INITIAL_PCS = {0, 100};
+	private static final long CYCLES = 5000;
+
+
+
+	@Test
+	public void writeThroughMSI() throws Exception{
+
+		ModelBuilder model = new ModelBuilder(CYCLES, false);
+		MemoryController memory = model.addMemory("memory", "test");
+		ProcessorCache[] caches = build(model, memory, ProcessorCache.WRITE_THROUGH, ProcessorCache.MSI);
+		model.run();
+
+		for(ProcessorCache cache : caches) assertTrue(cache.getName()+" snoops", cache.getSnoops() > 0);
+
+		// WRITE on 21 .. 24
+		MemorySnapshot contents = memory.snapshot();
+		assertEquals(4096, MemoryImage.dataOf(contents.getWord(21)));
+		assertEquals(4122, MemoryImage.dataOf(contents.getWord(22)));
+		assertEquals(5189, MemoryImage.dataOf(contents.getWord(23)));
+		assertEquals(5189, MemoryImage.dataOf(contents.getWord(24)));
+	}
+
+	@Test
+	public void writeBackMESI() throws Exception{
+		writeBack(false);
+	}
+
+	@Test
+	public void writeBackMESISkippingIdleCycles() throws Exception{
+		writeBack(true);
+	}
+
+
+
+	private void writeBack(boolean skipIdleCycles) throws Exception{
+
+		ModelBuilder model = new ModelBuilder(CYCLES, skipIdleCycles);
+		MemoryController memory = model.addMemory("memory", "test");
+		ProcessorCache[] caches = build(model, memory, ProcessorCache.WRITE_BACK, ProcessorCache.MESI);
+		model.run();
+
+		long invalidations = 0;
+		for(ProcessorCache cache : caches){
+			assertTrue(cache.getName()+" snoops", cache.getSnoops() > 0);
+			invalidations += cache.getInvalidations();
+		}
+		assertTrue("no line invalidated", invalidations > 0);
+	}
+
+
+	// processors behind private caches, on a snooping bus
+	private static ProcessorCache[] build(ModelBuilder model, MemoryController memory, String writePolicy, String coherence)
+			throws Exception{
+
+		ModelBuilder.set(memory, "dump", MemoryController.DUMP_NONE);
+
+		SingleSharedMemoryBus bus = model.addBus("bus");
+		model.connect(bus, "toMemory", memory, "input");
+		model.connect(memory, "output", bus, "fromMemory");
+
+		ProcessorCache[] caches = new ProcessorCache[INITIAL_PCS.length];
+		for(int i=0;i<INITIAL_PCS.length;i++){ // channel i of the bus is cache i
+
+			InstructionProcessor processor = model.addProcessor("processor"+i, INITIAL_PCS[i]);
+			ProcessorCache cache = model.addCache("cache"+i);
+			ModelBuilder.set(cache, "write policy", writePolicy);
+			ModelBuilder.set(cache, "coherence", coherence);
+
+			model.connect(processor, "output", cache, "input");
+			model.connect(cache, "output", processor, "input");
+			model.connect(cache, "toBus", bus, "input");
+			model.connect(bus, "output", cache, "fromBus");
+			model.connect(bus, "snoop", cache, "snoop");
+			model.connect(cache, "snoop response", bus, "snoop response");
+			caches[i] = cache;
+		}
+		return caches;
+	}
+
+}
@@ -0,0 +1,126 @@
+package lsi.instruction;
+
+/*
+ *
+ * Checks that SystemSimulator reproduces the discrete-event model it stands for: the same processors, bus and memory
+ * controller, built with ModelBuilder and run by Ptolemy for the same number of cycles, must end with the same grant
+ * and wait counts per master, record the same bus trace and dump the same memory contents.
+ *
+ * Both the test program and the memory file of the assessment (../memory.txt, with the initial PCs of
+ * ptolemy_models/q3submission_model.xml) are run, clocked on every cycle and skipping idle cycles.
+ *
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SystemSimulatorTest {
+
+	private static final File MEMORY_FILE = new File("../memory.txt"); // tests run from /benchmarks
+	private static final int[] MEMORY_FILE_PCS = {19384, 50152, 34768, 4000};
+	private static final int[] TEST_PROGRAM_PCS = {0, 100};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+
+	@Test
+	public void testProgram() throws Exception{
+		compare("test", TEST_PROGRAM_PCS, 5000, false);
+	}
+
+	@Test
+	public void testProgramSkippingIdleCycles() throws Exception{
+		compare("test", TEST_PROGRAM_PCS, 5000, true);
+	}
+
+	@Test
+	public void memoryFile() throws Exception{
+		compare(MEMORY_FILE.getAbsolutePath(), MEMORY_FILE_PCS, 20000, false);
+	}
+
+	@Test
+	public void memoryFileSkippingIdleCycles() throws Exception{
+		compare(MEMORY_FILE.getAbsolutePath(), MEMORY_FILE_PCS, 20000, true);
+	}
+
+
+
+	private void compare(String memoryFile, int[] initialPCs, long cycles, boolean skipIdleCycles) throws Exception{
+
+		// discrete-event model
+
+		File modelTrace = folder.newFile("model.trace");
+		File modelDump = folder.newFile("model.dump");
+
+		ModelBuilder model = new ModelBuilder(cycles, skipIdleCycles);
+		SingleSharedMemoryBus bus = model.addBus("bus");
+		MemoryController memory = model.addMemory("memory", memoryFile);
+		ModelBuilder.set(bus, "trace file", modelTrace.getPath());
+		ModelBuilder.set(memory, "dump", MemoryController.DUMP_ALL);
+		ModelBuilder.set(memory, "dump file", modelDump.getPath());
+
+		model.connect(bus, "toMemory", memory, "input");
+		model.connect(memory, "output", bus, "fromMemory");
+		for(int i=0;i<initialPCs.length;i++){ // channel i of the bus is master i
+			InstructionProcessor processor = model.addProcessor("processor"+i, initialPCs[i]);
+			model.connect(processor, "output", bus, "input");
+			model.connect(bus, "output", processor, "input");
+		}
+
+		model.run();
+
+
+		// simulator, from the same image
+
+		File simulatorTrace = folder.newFile("simulator.trace");
+		File simulatorDump = folder.newFile("simulator.dump");
+
+		SystemSimulator simulator = new SystemSimulator(load(memoryFile), initialPCs,
+				ArbitrationPolicies.create(ArbitrationPolicies.FIXED_PRIORITY, initialPCs.length, null, null, 0));
+
+		BusTraceWriter trace = new BusTraceWriter(simulatorTrace);
+		simulator.setBusListener(trace);
+		simulator.run(cycles);
+		trace.close();
+
+		FileOutputStream out = new FileOutputStream(simulatorDump);
+		try{
+			new MemoryDump(out.getChannel()).writeAll(simulator.getMemory());
+		}
+		finally{
+			out.close();
+		}
+
+
+		assertTrue("no bus traffic", simulator.getCompletedTransactions() > 0);
+		assertArrayEquals("grant counts", bus.getGrantCounts(), simulator.getGrantCounts());
+		assertArrayEquals("wait cycles", bus.getWaitCycles(), simulator.getWaitCycles());
+		assertEquals("busy cycles", bus.getBusyCycles(), simulator.getBusyCycles());
+		assertArrayEquals("bus trace", Files.readAllBytes(modelTrace.toPath()), Files.readAllBytes(simulatorTrace.toPath()));
+		assertArrayEquals("memory dump", Files.readAllBytes(modelDump.toPath()), Files.readAllBytes(simulatorDump.toPath()));
+	}
+
+
+	private static MemoryImage load(String memoryFile) throws IOException{
+
+		if(memoryFile.equals("test")){
+			MemoryImage image = new MemoryImage();
+			TestProgram.write(image);
+			return image;
+		}
+		return MemoryImageCache.get(new File(memoryFile));
+	}
+
+}
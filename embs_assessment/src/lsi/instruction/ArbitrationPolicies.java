@@ -0,0 +1,52 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Creates arbitration policies by name, as selected by the "arbitration" parameter of SingleSharedMemoryBus.
+ * 
+ * Has no Ptolemy dependencies, so policies can be created the same way by actors and by offline tools
+ * (see lsi.instruction.SystemSimulator).
+ * 
+ */
+
+public class ArbitrationPolicies {
+
+	public static final String FIXED_PRIORITY = "fixed priority";
+	public static final String ROUND_ROBIN = "round robin";
+	public static final String WEIGHTED_ROUND_ROBIN = "weighted round robin";
+	public static final String TDMA = "tdma";
+	public static final String LOTTERY = "lottery";
+
+	public static final String[] NAMES = {FIXED_PRIORITY, ROUND_ROBIN, WEIGHTED_ROUND_ROBIN, TDMA, LOTTERY};
+
+
+
+	private ArbitrationPolicies(){
+	}
+
+
+	// weights and slots can be null or empty, for 1 per master and one slot per master respectively
+	public static ArbitrationPolicy create(String policy, int masters, int[] weights, int[] slots, long seed){
+
+		if(policy.equals(FIXED_PRIORITY)) return new FixedPriorityArbitration();
+		else if(policy.equals(ROUND_ROBIN)) return new RoundRobinArbitration();
+		else if(policy.equals(WEIGHTED_ROUND_ROBIN)) return new WeightedRoundRobinArbitration(perMaster(weights, masters, 1));
+		else if(policy.equals(TDMA)) return new TdmaArbitration(perMaster(slots, masters, -1));
+		else if(policy.equals(LOTTERY)) return new LotteryArbitration(perMaster(weights, masters, 1), seed);
+
+		throw new IllegalArgumentException("Unknown arbitration policy: " + policy);
+	}
+
+
+	// returns the values given, or one entry per master if there are none
+	// (set to fill, or to the master index if fill is -1)
+	private static int[] perMaster(int[] values, int masters, int fill){
+
+		if(values != null && values.length > 0) return values;
+
+		values = new int[masters];
+		for(int i=0;i<masters;i++) values[i] = fill == -1 ? i : fill;
+		return values;
+	}
+
+}
@@ -0,0 +1,23 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Strategy used by SingleSharedMemoryBus to pick which master is granted the bus.
+ * 
+ * The bus calls initialize() once the number of masters is known, and then arbitrate() on every cycle in which
+ * it is idle, with the set of masters that are requesting the bus. The cycle argument is the number of clock
+ * cycles since initialisation, for time-driven policies.
+ * 
+ * Policies holding state from one arbitration to the next also implement lsi.instruction.Checkpointable, so that
+ * a checkpointed bus resumes with the same grants.
+ * 
+ */
+
+public interface ArbitrationPolicy {
+
+	public void initialize(int masters);
+
+	// returns the index of the master granted the bus, or -1 if no master is granted
+	public int arbitrate(RequestMask requests, long cycle);
+
+}
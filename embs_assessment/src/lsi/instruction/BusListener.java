@@ -0,0 +1,18 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Receives the values driven on the address and data sub-buses by lsi.instruction.SystemSimulator, in the same order
+ * and on the same cycles as SingleSharedMemoryBus outputs them on its bus word ports.
+ * 
+ * The master is the one the transaction belongs to (for a READ response, the one receiving the data).
+ * 
+ */
+
+public interface BusListener {
+
+	public void addressDriven(long cycle, int master, int address);
+
+	public void dataDriven(long cycle, int master, int data);
+
+}
@@ -0,0 +1,145 @@
+package lsi.instruction;
+
+/*
+ *
+ * Reads back, one beat at a time, a bus trace recorded by lsi.instruction.BusTraceWriter (see there for the format).
+ *
+ * The trace is streamed through a fixed-size buffer, so traces of any length can be replayed in constant memory, and
+ * records are decoded straight from the buffer. next() moves to the following beat, whose cycle, master, sub-bus and
+ * value are then available through the getters; replay() hands all remaining beats to a BusListener instead.
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BusTraceReader {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position, limit;
+
+	private long cycle;
+	private int master, bus, value;
+	private final int[] lastValue = new int[2]; // per sub-bus
+	private long beats;
+
+
+
+	public BusTraceReader(File file) throws IOException{
+		this(new FileInputStream(file));
+	}
+
+
+	public BusTraceReader(InputStream in) throws IOException{
+
+		this.in = in; // buffered by the reader itself
+
+		if(readInt() != BusTraceWriter.MAGIC) throw new IOException("not a bus trace");
+		int version = readInt();
+		if(version != BusTraceWriter.VERSION) throw new IOException("unsupported bus trace version "+version);
+	}
+
+
+
+	// moves to the next beat, returns false at the end of the trace
+	public boolean next() throws IOException{
+
+		if(position == limit && !fill()) return false;
+
+		cycle += readVarint();
+		int tag = (int)readVarint();
+		master = (tag >>> 1) - 1;
+		bus = tag & 1;
+		long zigzag = readVarint();
+		value = lastValue[bus] + ((int)(zigzag >>> 1) ^ -(int)(zigzag & 1));
+		lastValue[bus] = value;
+
+		beats++;
+		return true;
+	}
+
+
+	// hands all remaining beats to the listener, returns their number
+	public long replay(BusListener listener) throws IOException{
+
+		long start = beats;
+		while(next()){
+			if(bus == BusTraceWriter.ADDRESS) listener.addressDriven(cycle, master, value);
+			else listener.dataDriven(cycle, master, value);
+		}
+		return beats - start;
+	}
+
+
+	public long getCycle(){
+		return cycle;
+	}
+
+	public int getMaster(){
+		return master;
+	}
+
+	// BusTraceWriter.ADDRESS or BusTraceWriter.DATA
+	public int getBus(){
+		return bus;
+	}
+
+	public int getValue(){
+		return value;
+	}
+
+	// number of beats read so far
+	public long getBeats(){
+		return beats;
+	}
+
+
+	public void close() throws IOException{
+		in.close();
+	}
+
+
+
+	private long readVarint() throws IOException{
+
+		long result = 0;
+		int shift = 0;
+
+		while(true){
+			if(position == limit && !fill()) throw new IOException("truncated bus trace");
+			byte b = buffer[position++];
+			result |= (long)(b & 0x7F) << shift;
+			if(b >= 0) return result;
+			shift += 7;
+			if(shift > 63) throw new IOException("corrupted bus trace");
+		}
+	}
+
+
+	private int readInt() throws IOException{
+
+		int result = 0;
+		for(int i=0;i<4;i++){
+			if(position == limit && !fill()) throw new IOException("truncated bus trace");
+			result = (result << 8) | (buffer[position++] & 0xFF);
+		}
+		return result;
+	}
+
+
+	// refills the buffer, returns false at the end of the stream
+	private boolean fill() throws IOException{
+
+		int n = in.read(buffer, 0, BUFFER_SIZE);
+		if(n <= 0) return false;
+		position = 0;
+		limit = n;
+		return true;
+	}
+
+}
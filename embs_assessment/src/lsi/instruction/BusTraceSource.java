@@ -0,0 +1,165 @@
+package lsi.instruction;
+
+/*
+ *
+ * Source actor replaying a bus trace recorded by SingleSharedMemoryBus (see its "trace file" parameter) or
+ * lsi.instruction.BusTraceWriter, in place of the processor/bus/memory model it was recorded from.
+ *
+ * Every beat is sent on the "address bus word" or "data bus word" port, as the bus does, at the model time of the
+ * cycle it was recorded on: cycle c (numbered from 1, as in lsi.instruction.ClockedActor) takes place at
+ * "clock offset" + (c - 1) * "clock period". The master of every beat is sent on the master port at the same time
+ * (-1 for words flushed on behalf of a cache). The word ports can thus be connected to a q3.TransitionCounter directly.
+ *
+ * The trace is streamed: only the next beat is read ahead, and the actor asks the director to fire it on its cycle,
+ * so cycles without any beat cost nothing. Beats out of the -1..65535 range are sent as -1, as the bus does.
+ *
+ * The number of beats replayed is printed upon wrapup when "print statistics" is set.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+@SuppressWarnings("serial")
+public class BusTraceSource extends TypedAtomicActor {
+
+	protected TypedIOPort addressBusWord, dataBusWord, master;
+	protected StringParameter traceFile;
+	protected Parameter clockPeriod, clockOffset, printStatistics;
+
+	protected double period, offset;
+	protected boolean printing;
+	protected BusTraceReader reader;
+	protected boolean pending; // the reader holds a beat not sent yet
+
+
+
+	public BusTraceSource(CompositeEntity container, String name)
+			throws NameDuplicationException, IllegalActionException  {
+
+		super(container, name);
+
+		addressBusWord = new TypedIOPort(this, "address bus word", false, true);
+		dataBusWord = new TypedIOPort(this, "data bus word", false, true);
+		master = new TypedIOPort(this, "master", false, true);
+
+		addressBusWord.setTypeEquals(BaseType.INT);
+		dataBusWord.setTypeEquals(BaseType.INT);
+		master.setTypeEquals(BaseType.INT);
+
+		traceFile = new StringParameter(this, "trace file");
+		traceFile.setExpression("");
+
+		clockPeriod = new Parameter(this, "clock period");
+		clockPeriod.setTypeEquals(BaseType.DOUBLE);
+		clockPeriod.setExpression("1.0");
+
+		clockOffset = new Parameter(this, "clock offset"); // time of cycle 1
+		clockOffset.setTypeEquals(BaseType.DOUBLE);
+		clockOffset.setExpression("0.0");
+
+		printStatistics = new Parameter(this, "print statistics"); // upon wrapup, as for lsi.instruction.ClockedActor
+		printStatistics.setTypeEquals(BaseType.BOOLEAN);
+		printStatistics.setExpression("false");
+	}
+
+
+	public void initialize() throws IllegalActionException{
+
+		super.initialize();
+
+		period = ((DoubleToken)clockPeriod.getToken()).doubleValue();
+		offset = ((DoubleToken)clockOffset.getToken()).doubleValue();
+		if(period <= 0) throw new IllegalActionException(this, "clock period must be positive");
+		printing = ((BooleanToken)printStatistics.getToken()).booleanValue();
+
+		closeReader();
+		try{
+			reader = new BusTraceReader(new File(traceFile.stringValue().trim()));
+			pending = reader.next();
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Could not read trace file "+traceFile.stringValue());
+		}
+
+		if(pending) scheduleNextBeat();
+	}
+
+
+	public void fire() throws IllegalActionException{
+
+		super.fire();
+		if(!pending) return;
+
+		double elapsed = (getDirector().getModelTime().getDoubleValue() - offset) / period;
+		long cycle = elapsed < 0 ? 0 : (long)Math.floor(elapsed + 1e-9) + 1;
+
+		try{
+			// send all the beats of the current cycle, in the order they were recorded
+			while(pending && reader.getCycle() <= cycle){
+
+				IntToken word = SingleSharedMemoryBus.getBusWordToken(reader.getValue());
+				if(reader.getBus() == BusTraceWriter.ADDRESS) addressBusWord.send(0, word);
+				else dataBusWord.send(0, word);
+				master.send(0, new IntToken(reader.getMaster()));
+
+				pending = reader.next();
+			}
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Could not read trace file "+traceFile.stringValue());
+		}
+
+		if(pending) scheduleNextBeat();
+	}
+
+
+	public long getBeats(){
+		return reader==null ? 0 : reader.getBeats() - (pending ? 1 : 0);
+	}
+
+
+	public void wrapup() throws IllegalActionException{
+
+		super.wrapup();
+		if(reader==null) return; // initialisation did not complete
+
+		if(printing) System.out.println(getName()+": "+getBeats()+" beats replayed");
+		closeReader();
+	}
+
+
+
+	protected void scheduleNextBeat() throws IllegalActionException{
+		getDirector().fireAt(this, new Time(getDirector(), offset + (reader.getCycle() - 1) * period));
+	}
+
+
+	protected void closeReader() throws IllegalActionException{
+
+		if(reader==null) return;
+		try{
+			reader.close();
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Could not close trace file "+traceFile.stringValue());
+		}
+		finally{
+			reader = null;
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package lsi.instruction;
+
+/*
+ *
+ * Records the values driven on the address and data sub-buses to a compact binary trace, to be replayed by
+ * lsi.instruction.BusTraceReader (e.g. through lsi.instruction.BusTraceSource or q3.TraceAnalyser) without running the
+ * processor/bus/memory model again.
+ *
+ * The trace starts with an 8-byte big-endian header (magic "LSIT", format version), followed by one record per beat,
+ * i.e. per value driven on either sub-bus, in the order they were driven. A record is made of three varints
+ * (7 bits per byte, least significant group first, high bit set on all bytes but the last):
+ *
+ * - the number of cycles elapsed since the previous beat (0 for beats on the same cycle)
+ * - (master + 1) * 2 + sub-bus, where sub-bus is 0 for the address and 1 for the data sub-bus, and master is -1 when
+ *   no master is known (words flushed on behalf of a snooping cache)
+ * - the difference between the value and the previous value of the same sub-bus (initially 0), zigzag encoded so that
+ *   small negative differences take a single byte as well
+ *
+ * Most beats thus take 3 to 4 bytes. Records are assembled in a buffer and written in large blocks.
+ *
+ * As a BusListener, it can be given to lsi.instruction.SystemSimulator directly; SingleSharedMemoryBus calls it when
+ * its "trace file" parameter is set.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class BusTraceWriter implements BusListener {
+
+	public static final int MAGIC = 0x4C534954; // "LSIT"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 8;
+
+	public static final int ADDRESS = 0;
+	public static final int DATA = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+
+	private long lastCycle;
+	private final int[] lastValue = new int[2]; // per sub-bus
+	private long beats;
+	private IOException error; // first error raised while writing, reported on close
+
+
+
+	public BusTraceWriter(File file) throws IOException{
+		this(new FileOutputStream(file));
+	}
+
+
+	public BusTraceWriter(OutputStream out) throws IOException{
+
+		this.out = out; // buffered by the writer itself
+
+		writeInt(MAGIC);
+		writeInt(VERSION);
+	}
+
+
+
+	public void addressDriven(long cycle, int master, int address){
+		write(cycle, master, ADDRESS, address);
+	}
+
+	public void dataDriven(long cycle, int master, int data){
+		write(cycle, master, DATA, data);
+	}
+
+
+	// the listener methods cannot throw, errors are kept until close()
+	public void write(long cycle, int master, int bus, int value){
+
+		if(position > BUFFER_SIZE - 32) flushBuffer(); // room for the largest record
+
+		writeVarint(cycle - lastCycle);
+		writeVarint(((master + 1) << 1) | bus);
+		int delta = value - lastValue[bus];
+		writeVarint(((delta << 1) ^ (delta >> 31)) & 0xFFFFFFFFL); // zigzag
+
+		lastCycle = cycle;
+		lastValue[bus] = value;
+		beats++;
+	}
+
+
+	public long getBeats(){
+		return beats;
+	}
+
+
+	public void close() throws IOException{
+
+		flushBuffer();
+		try{
+			out.close();
+		}
+		catch(IOException e){
+			if(error==null) error = e;
+		}
+		if(error!=null) throw error;
+	}
+
+
+
+	private void writeVarint(long value){
+
+		while((value & ~0x7FL) != 0){
+			buffer[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte)value;
+	}
+
+
+	private void writeInt(int value){
+
+		buffer[position++] = (byte)(value >>> 24);
+		buffer[position++] = (byte)(value >>> 16);
+		buffer[position++] = (byte)(value >>> 8);
+		buffer[position++] = (byte)value;
+	}
+
+
+	private void flushBuffer(){
+
+		if(error==null){
+			try{
+				out.write(buffer, 0, position);
+			}
+			catch(IOException e){
+				error = e;
+			}
+		}
+		position = 0;
+	}
+
+}
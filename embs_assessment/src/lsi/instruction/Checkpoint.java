@@ -0,0 +1,196 @@
+package lsi.instruction;
+
+/*
+ *
+ * Saved state of a simulation: the time it was saved at, and the state of each of its lsi.instruction.Checkpointable
+ * parts, in named sections (the actor names within the model, see lsi.instruction.CheckpointManager).
+ *
+ * Each section is held as the bytes written by saveState(), so sections are independent of each other: a part whose
+ * state format does not match is detected (see load()) rather than throwing the following sections off.
+ *
+ * Checkpoints are written to disk as a 16-byte big-endian header (magic "LSIC", format version, time as a double)
+ * followed by the number of sections and, for each section, its name (modified UTF-8, as by DataOutput.writeUTF),
+ * its length in bytes and its contents. Memory contents are stored as the pages that differ from the initial
+ * image (see MemoryImage.saveChanges()), so checkpoints stay small for programs that write little memory.
+ *
+ * Only depends on Ptolemy-free classes, lsi.instruction.SystemSimulator uses it as well.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class Checkpoint {
+
+	public static final int MAGIC = 0x4C534943; // "LSIC"
+	public static final int VERSION = 1;
+
+	private double time;
+	private final Map<String, byte[]> sections = new LinkedHashMap<String, byte[]>();
+
+
+
+	public Checkpoint(double time){
+		this.time = time;
+	}
+
+
+	// model time the checkpoint was saved at (the cycle, for SystemSimulator)
+	public double getTime(){
+		return time;
+	}
+
+	public Set<String> getSections(){
+		return sections.keySet();
+	}
+
+	public boolean has(String name){
+		return sections.containsKey(name);
+	}
+
+
+	public void save(String name, Checkpointable part) throws IOException{
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		part.saveState(out);
+		out.flush();
+		sections.put(name, bytes.toByteArray());
+	}
+
+
+	public void load(String name, Checkpointable part) throws IOException{
+
+		byte[] bytes = sections.get(name);
+		if(bytes == null) throw new IOException("no state saved for " + name);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		part.loadState(in);
+		if(in.available() != 0) throw new IOException("state of " + name + " does not match its saved format");
+	}
+
+
+
+	public void write(File file) throws IOException{
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(time);
+			out.writeInt(sections.size());
+			for(Map.Entry<String, byte[]> section : sections.entrySet()){
+				out.writeUTF(section.getKey());
+				out.writeInt(section.getValue().length);
+				out.write(section.getValue());
+			}
+		}
+		finally{
+			out.close();
+		}
+	}
+
+
+	public static Checkpoint read(File file) throws IOException{
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			if(in.readInt() != MAGIC) throw new IOException(file + " is not a checkpoint");
+			int version = in.readInt();
+			if(version != VERSION) throw new IOException(file + ": unsupported checkpoint version " + version);
+
+			Checkpoint checkpoint = new Checkpoint(in.readDouble());
+			int count = in.readInt();
+			for(int i=0;i<count;i++){
+				String name = in.readUTF();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				checkpoint.sections.put(name, bytes);
+			}
+			return checkpoint;
+		}
+		finally{
+			in.close();
+		}
+	}
+
+
+
+	//
+	// HELPERS
+	//
+
+	// random generators are saved along with their internal state, so draws resume where they stopped
+	public static void writeRandom(DataOutputStream out, Random random) throws IOException{
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream object = new ObjectOutputStream(bytes);
+		object.writeObject(random);
+		object.close();
+
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+
+	public static Random readRandom(DataInputStream in) throws IOException{
+
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		ObjectInputStream object = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try{
+			return (Random)object.readObject();
+		}
+		catch(ClassNotFoundException e){
+			throw new IOException(e.toString());
+		}
+		catch(ClassCastException e){
+			throw new IOException("corrupt random generator state");
+		}
+		finally{
+			object.close();
+		}
+	}
+
+
+	public static void writeLongs(DataOutputStream out, long[] values) throws IOException{
+		out.writeInt(values.length);
+		for(long value : values) out.writeLong(value);
+	}
+
+	// reads into the given array, whose length must match the saved one
+	public static void readLongs(DataInputStream in, long[] values) throws IOException{
+		checkLength(in.readInt(), values.length);
+		for(int i=0;i<values.length;i++) values[i] = in.readLong();
+	}
+
+	public static void writeInts(DataOutputStream out, int[] values) throws IOException{
+		out.writeInt(values.length);
+		for(int value : values) out.writeInt(value);
+	}
+
+	public static void readInts(DataInputStream in, int[] values) throws IOException{
+		checkLength(in.readInt(), values.length);
+		for(int i=0;i<values.length;i++) values[i] = in.readInt();
+	}
+
+	public static void checkLength(int saved, int expected) throws IOException{
+		if(saved != expected) throw new IOException("saved for " + saved + " entries, " + expected + " expected");
+	}
+
+}
@@ -0,0 +1,184 @@
+package lsi.instruction;
+
+/*
+ *
+ * Actor saving the state of a model to a checkpoint upon wrapup, and resuming a model from a checkpoint upon
+ * initialisation, so that a long run can be split into several shorter ones (in the same JVM or on other machines),
+ * or warmed up once and then branched into several continuations.
+ *
+ * The actor has no ports, it only needs to be placed in the model, next to the actors whose state it handles: all
+ * actors of its container implementing lsi.instruction.Checkpointable (processors, buses, memory controllers and
+ * caches), each in its own section named after the actor. The state saved is the one the actors hold between two
+ * clock cycles, i.e. everything that carries over to the next cycle, statistics included.
+ *
+ * - "checkpoint file": if set, the checkpoint is written there upon wrapup, along with the model time
+ * - "restore file": if set, the checkpoint is read upon preinitialisation, and every Checkpointable actor loads its
+ *   section at the end of its own initialisation (see restoreState()). The director's "startTime" parameter is set to
+ *   the time of the first clock cycle after the checkpoint time, as given by the "clock period" and "clock offset"
+ *   parameters, so clocks resume on that cycle and the model goes on as if it had never stopped. The previous
+ *   expression of "startTime" is put back upon wrapup, so the model itself is left unchanged
+ * - "print statistics": if true, the number of actors checkpointed is printed upon wrapup
+ *
+ * A typical split run sets the director's stop time to the checkpoint time in the first run, with a checkpoint file,
+ * and restores from that file in the next one. Both files can be the same, to run a model in consecutive slices.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.NamedObj;
+
+@SuppressWarnings("serial")
+public class CheckpointManager extends TypedAtomicActor {
+
+	protected StringParameter checkpointFile, restoreFile;
+	protected Parameter clockPeriod, clockOffset, printStatistics;
+
+	protected Checkpoint restored; // checkpoint being resumed from, null if none
+	protected Parameter startTime; // director parameter set to resume from the checkpoint, null if left alone
+	protected String startTimeExpression; // its expression before that, put back upon wrapup
+
+
+
+	public CheckpointManager(CompositeEntity container, String name)
+			throws NameDuplicationException, IllegalActionException  {
+
+		super(container, name);
+
+		checkpointFile = new StringParameter(this, "checkpoint file"); // empty: no checkpoint saved
+		checkpointFile.setExpression("");
+
+		restoreFile = new StringParameter(this, "restore file"); // empty: start from scratch
+		restoreFile.setExpression("");
+
+		clockPeriod = new Parameter(this, "clock period");
+		clockPeriod.setTypeEquals(BaseType.DOUBLE);
+		clockPeriod.setExpression("1.0");
+
+		clockOffset = new Parameter(this, "clock offset");
+		clockOffset.setTypeEquals(BaseType.DOUBLE);
+		clockOffset.setExpression("0.0");
+
+		printStatistics = new Parameter(this, "print statistics"); // upon wrapup, as for lsi.instruction.ClockedActor
+		printStatistics.setTypeEquals(BaseType.BOOLEAN);
+		printStatistics.setExpression("false");
+	}
+
+
+	public void preinitialize() throws IllegalActionException{
+
+		super.preinitialize();
+		restored = null;
+		restoreStartTime(); // in case the previous run did not wrap up
+
+		String file = restoreFile.stringValue().trim();
+		if(file.isEmpty()) return;
+
+		try{
+			restored = Checkpoint.read(new File(file));
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Could not read checkpoint "+file);
+		}
+
+		// resume on the first cycle after the checkpoint
+		double period = ((DoubleToken)clockPeriod.getToken()).doubleValue();
+		double offset = ((DoubleToken)clockOffset.getToken()).doubleValue();
+		if(period <= 0) throw new IllegalActionException(this, "clock period must be positive");
+		double start = offset + (Math.floor((restored.getTime() - offset) / period + 1e-9) + 1) * period;
+
+		Attribute attribute = getDirector().getAttribute("startTime");
+		if(!(attribute instanceof Parameter)){
+			throw new IllegalActionException(this, "The director has no startTime parameter to resume from");
+		}
+		startTime = (Parameter)attribute;
+		startTimeExpression = startTime.getExpression();
+		startTime.setExpression(Double.toString(start));
+		startTime.validate();
+	}
+
+
+	public void wrapup() throws IllegalActionException{
+
+		super.wrapup();
+
+		try{
+			saveCheckpoint();
+		}
+		finally{
+			restoreStartTime(); // the next run starts from scratch unless it restores a checkpoint too
+		}
+	}
+
+
+	protected void saveCheckpoint() throws IllegalActionException{
+
+		String file = checkpointFile.stringValue().trim();
+		if(file.isEmpty()) return;
+
+		Checkpoint checkpoint = new Checkpoint(getDirector().getModelTime().getDoubleValue());
+		try{
+			for(Object entity : ((CompositeEntity)getContainer()).entityList(Checkpointable.class)){
+				checkpoint.save(((NamedObj)entity).getName(), (Checkpointable)entity);
+			}
+			checkpoint.write(new File(file));
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Could not write checkpoint "+file);
+		}
+
+		if(((BooleanToken)printStatistics.getToken()).booleanValue()){
+			System.out.println(getName()+": "+checkpoint.getSections().size()+" actors checkpointed at time "
+					+checkpoint.getTime()+" to "+file);
+		}
+	}
+
+
+	// puts back the director's start time as it was before resuming from a checkpoint
+	protected void restoreStartTime() throws IllegalActionException{
+
+		if(startTime==null) return;
+
+		Parameter parameter = startTime;
+		startTime = null;
+		parameter.setExpression(startTimeExpression);
+		parameter.validate();
+	}
+
+
+
+	// loads the saved state of an actor from the checkpoint being resumed from, if any; called by the actors at the
+	// end of their initialisation, returns whether the state was restored
+	public static boolean restoreState(Checkpointable actor) throws IllegalActionException{
+
+		NamedObj named = (NamedObj)actor;
+		if(!(named.getContainer() instanceof CompositeEntity)) return false;
+
+		for(Object entity : ((CompositeEntity)named.getContainer()).entityList(CheckpointManager.class)){
+
+			CheckpointManager manager = (CheckpointManager)entity;
+			if(manager.restored==null) continue;
+
+			try{
+				manager.restored.load(named.getName(), actor);
+			}
+			catch(IOException e){
+				throw new IllegalActionException(named, e, "Could not restore state from "+manager.restoreFile.stringValue());
+			}
+			return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,23 @@
+package lsi.instruction;
+
+/*
+ *
+ * Implemented by the parts of a simulation whose state can be saved to an lsi.instruction.Checkpoint and loaded
+ * back, so that a run can be resumed from the point it was saved at, in the same or in another JVM.
+ *
+ * loadState() must read exactly what saveState() wrote, in the same order, and leave the object as it was when
+ * saved: a resumed run then goes through the same states on the same cycles as the original one.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public interface Checkpointable {
+
+	public void saveState(DataOutputStream out) throws IOException;
+
+	public void loadState(DataInputStream in) throws IOException;
+
+}
@@ -0,0 +1,179 @@
+package lsi.instruction;
+
+/*
+ *
+ * Base class of the actors driven by the system clock (processor, bus, memory controller and cache).
+ *
+ * By default, every token received on the clk port is a clock cycle (a tick), and actors act upon every one of them,
+ * even when they have nothing to do.
+ *
+ * When the "skip idle cycles" parameter is true, tokens received on the clk port are ignored, and the port is best left
+ * unconnected. The actor computes clock cycles out of the "clock period" and "clock offset" parameters, which must
+ * match those of the clock it replaces, and asks the director to fire it only on the cycles it has something to do
+ * (see requestTick()): a processor in EXECUTE state is fired once its timer expires, and an idle bus or memory is not
+ * fired until a request arrives. As with the clock, firings caused by inputs alone are not ticks, so the actors go
+ * through the same sequence of states on the same cycles in both modes.
+ *
+ * In both modes, the cycle field holds the number of ticks up to and including the current time.
+ *
+ * Statistics kept by the actors are available through their getters (and ports, where they have one), and are only
+ * printed upon wrapup when the "print statistics" parameter is true.
+ *
+ * Clocked actors can be checkpointed (see lsi.instruction.CheckpointManager): subclasses extend saveState() and
+ * loadState() with the fields they keep across cycles, and call restoreState() at the end of their initialisation,
+ * before requesting their first tick.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+@SuppressWarnings("serial")
+public abstract class ClockedActor extends TypedAtomicActor implements Checkpointable {
+
+	protected TypedIOPort clk;
+	protected Parameter skipIdleCycles, clockPeriod, clockOffset, printStatistics;
+
+	protected boolean skipping, printing;
+	protected double period, offset;
+	protected long cycle;
+	protected Time scheduledTick; // next tick requested from the director, null if none
+
+
+
+	public ClockedActor(CompositeEntity container, String name)
+			throws NameDuplicationException, IllegalActionException  {
+
+		super(container, name);
+
+		clk = new TypedIOPort(this, "clk", true, false); // clock signal
+
+		skipIdleCycles = new Parameter(this, "skip idle cycles");
+		skipIdleCycles.setTypeEquals(BaseType.BOOLEAN);
+		skipIdleCycles.setExpression("false");
+
+		clockPeriod = new Parameter(this, "clock period");
+		clockPeriod.setTypeEquals(BaseType.DOUBLE);
+		clockPeriod.setExpression("1.0");
+
+		clockOffset = new Parameter(this, "clock offset"); // time of the first tick
+		clockOffset.setTypeEquals(BaseType.DOUBLE);
+		clockOffset.setExpression("0.0");
+
+		printStatistics = new Parameter(this, "print statistics"); // upon wrapup
+		printStatistics.setTypeEquals(BaseType.BOOLEAN);
+		printStatistics.setExpression("false");
+	}
+
+
+	public void initialize() throws IllegalActionException{
+
+		super.initialize();
+
+		skipping = ((BooleanToken)skipIdleCycles.getToken()).booleanValue();
+		period = ((DoubleToken)clockPeriod.getToken()).doubleValue();
+		offset = ((DoubleToken)clockOffset.getToken()).doubleValue();
+		if(period <= 0) throw new IllegalActionException(this, "clock period must be positive");
+		printing = ((BooleanToken)printStatistics.getToken()).booleanValue();
+
+		cycle = 0;
+		scheduledTick = null;
+	}
+
+
+	// returns whether the current firing is a tick, consuming the clock token if any
+	protected boolean tick() throws IllegalActionException{
+
+		if(!skipping){
+
+			if(!clk.hasToken(0)) return false;
+			clk.get(0); // consume clock token
+			cycle++;
+			return true;
+		}
+
+		if(clk.getWidth() > 0 && clk.hasToken(0)) clk.get(0); // clock ignored, ticks are computed
+
+		Time now = getDirector().getModelTime();
+		double elapsed = (now.getDoubleValue() - offset) / period;
+		cycle = elapsed < 0 ? 0 : (long)Math.floor(elapsed + 1e-9) + 1;
+
+		if(scheduledTick!=null && now.compareTo(scheduledTick)==0){
+			scheduledTick = null;
+			return true;
+		}
+		return false;
+	}
+
+
+	// asks to be fired on the given number of cycles after the current one (1 for the next cycle),
+	// unless a tick has already been requested; no effect unless idle cycles are skipped
+	protected void requestTick(long cycles) throws IllegalActionException{
+
+		if(!skipping || scheduledTick!=null) return;
+
+		long next = cycle - 1 + Math.max(cycles, 1); // ticks are numbered from 0
+		scheduledTick = new Time(getDirector(), offset + next * period);
+		getDirector().fireAt(this, scheduledTick);
+	}
+
+
+
+	public void saveState(DataOutputStream out) throws IOException{
+		out.writeLong(cycle);
+	}
+
+	public void loadState(DataInputStream in) throws IOException{
+		cycle = in.readLong();
+	}
+
+
+	// loads the state saved in the checkpoint being resumed from, if any (see CheckpointManager)
+	protected boolean restoreState() throws IllegalActionException{
+		return CheckpointManager.restoreState(this);
+	}
+
+
+	// tokens are saved as the four fields of their instruction, null included
+	protected static void writeToken(DataOutputStream out, RecordToken token) throws IOException{
+
+		out.writeBoolean(token!=null);
+		if(token==null) return;
+
+		Instruction instruction = Instruction.fromToken(token);
+		out.writeInt(instruction.type);
+		out.writeInt(instruction.data);
+		out.writeInt(instruction.address);
+		out.writeInt(instruction.time);
+	}
+
+	protected static RecordToken readToken(DataInputStream in) throws IOException{
+
+		if(!in.readBoolean()) return null;
+
+		int type = in.readInt();
+		int data = in.readInt();
+		int address = in.readInt();
+		int time = in.readInt();
+		try{
+			return InstructionToken.valueOf(type, data, address, time);
+		}
+		catch(IllegalActionException e){
+			throw new IOException(e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,356 @@
+package lsi.instruction;
+
+/*
+ *
+ * Static estimate of the bus contention of InstructionProcessor masters sharing a SingleSharedMemoryBus in blocking
+ * mode, out of the control flow of their program (see lsi.instruction.ProgramAnalysis) rather than a cycle-level
+ * simulation, so configurations that cannot perform well can be pruned before simulating them.
+ *
+ * In the long run every master runs the loop its path ends up in. Run alone on the bus, one iteration of that loop
+ * takes a known number of cycles and issues one fetch per word plus one request per READ and WRITE, which gives its
+ * demand in grants per cycle. Each grant holds the bus for a number of cycles, from the cycle it is arbitrated on to
+ * the first cycle another master can be granted: READ_OCCUPANCY for a fetch or READ (request, memory access,
+ * response) and WRITE_OCCUPANCY for a WRITE. The bus demand of a master is its grants per cycle times their average
+ * occupancy, and the bus is predicted to saturate when the demands of all masters add up to more than 1.
+ *
+ * Once saturated, the bus is shared among the masters as the arbitration policy would share it in the long run:
+ *
+ * - fixed priority: in priority order, every master gets what it asks for out of what masters of higher priority left.
+ *   Arbitration is not preemptive, so masters of high priority still wait for the transactions of lower ones in
+ *   progress: their predicted share is optimistic, and masters predicted to starve get a little of the bus
+ * - round robin and lottery: grants are shared in proportion to the weights (1 each for round robin, tickets for
+ *   lottery), masters asking for less than their share getting what they ask for and the others sharing what they
+ *   leave (max-min fairness)
+ * - weighted round robin: as round robin. A master only keeps the bus for its extra grants while it keeps requesting,
+ *   and a processor waiting for its grant or data never requests on the cycle the bus becomes free again
+ * - TDMA: every master gets at most one grant per slot it owns; slots lost to a transaction of another master still
+ *   holding the bus are not accounted for, so TDMA predictions are optimistic
+ *
+ * A master granted less than it asks for is slowed down in proportion: its loop takes its requests divided by its
+ * grants per cycle. Below saturation, no slowdown is predicted, although masters still wait for each other now and
+ * then. Masters that halt, or write over the code they run, are not modelled beyond what ProgramAnalysis does.
+ *
+ * Only depends on Ptolemy-free classes of this package, and can be run from the command line:
+ *
+ * java lsi.instruction.ContentionAnalysis <memory file | test> <initial PC>... [-arbitration policy]
+ *      [-weights w0,w1,...] [-slots s0,s1,...] [-simulate cycles]
+ *
+ * which prints the loop of every master, its request rate and bus demand alone on the bus, and its predicted share
+ * and slowdown; -simulate also runs lsi.instruction.SystemSimulator for the given cycles to compare the prediction
+ * with the grants actually obtained.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+public class ContentionAnalysis {
+
+	public static final int READ_OCCUPANCY = 3; // arbitrated, granted and sent to memory, data sent back
+	public static final int WRITE_OCCUPANCY = 1; // arbitrated, granted and written at once
+
+	protected final ProgramAnalysis program;
+	protected final String policy;
+	protected final int processors;
+
+	// per master, in the long run
+	protected final long[] loopRequests, loopCycles, executeCycles;
+	protected final double[] demand; // grants per cycle alone on the bus
+	protected final double[] occupancy; // average cycles the bus is held per grant
+	protected final double[] grants; // predicted grants per cycle
+
+
+
+	// weights and slots as for ArbitrationPolicies.create(), null for their defaults
+	public ContentionAnalysis(ProgramAnalysis program, String policy, int[] weights, int[] slots){
+
+		this.program = program;
+		this.policy = policy;
+		this.processors = program.getProcessors();
+
+		loopRequests = new long[processors];
+		loopCycles = new long[processors];
+		executeCycles = new long[processors];
+		demand = new double[processors];
+		occupancy = new double[processors];
+
+		for(int i=0;i<processors;i++){
+
+			ProgramAnalysis.Path path = program.getPath(i);
+			if(path.halts()) continue; // no demand in the long run
+
+			long held = 0;
+			for(ProgramAnalysis.Block block : path.getLoop()){
+
+				int writes = block.getInstructions(Instruction.WRITE);
+				held += (long)(block.getRequests() - writes) * READ_OCCUPANCY + (long)writes * WRITE_OCCUPANCY;
+
+				for(int p=block.getStart();p<=block.getEnd();p++){
+					if(program.memory.getType(p)==Instruction.EXECUTE) executeCycles[i] += Math.max(program.memory.getTime(p), 1);
+				}
+			}
+
+			loopRequests[i] = path.getLoopRequests();
+			loopCycles[i] = path.getLoopCycles();
+			demand[i] = (double)loopRequests[i] / loopCycles[i];
+			occupancy[i] = (double)held / loopRequests[i];
+		}
+
+		if(getBusDemand() <= 1) grants = demand.clone(); // every master gets what it asks for
+		else if(policy.equals(ArbitrationPolicies.FIXED_PRIORITY)) grants = sharePriority();
+		else if(policy.equals(ArbitrationPolicies.ROUND_ROBIN) || policy.equals(ArbitrationPolicies.WEIGHTED_ROUND_ROBIN)){
+			grants = shareFair(perMaster(null, 1)); // weights never used in blocking mode, see above
+		}
+		else if(policy.equals(ArbitrationPolicies.LOTTERY)) grants = shareFair(perMaster(weights, 1));
+		else if(policy.equals(ArbitrationPolicies.TDMA)) grants = shareSlots(perMaster(slots, -1));
+		else throw new IllegalArgumentException("Unknown arbitration policy: " + policy);
+	}
+
+
+
+	// masters in index order, master 0 first
+	protected double[] sharePriority(){
+
+		double[] shares = new double[processors];
+		double left = 1;
+
+		for(int i=0;i<processors;i++){
+			if(demand[i]==0) continue;
+			shares[i] = Math.min(demand[i], left / occupancy[i]);
+			left -= shares[i] * occupancy[i];
+		}
+		return shares;
+	}
+
+
+	// max-min fair share of the bus, grants in proportion to the weights
+	protected double[] shareFair(int[] weights){
+
+		double[] shares = new double[processors];
+		boolean[] satisfied = new boolean[processors];
+		double left = 1;
+
+		while(true){
+
+			// grants per cycle per unit of weight, if all unsatisfied masters were held to their share
+			double load = 0;
+			for(int i=0;i<processors;i++) if(!satisfied[i] && demand[i] > 0) load += weights[i] * occupancy[i];
+			if(load == 0) break;
+			double rate = left / load;
+
+			boolean changed = false;
+			for(int i=0;i<processors;i++){
+				if(!satisfied[i] && demand[i] <= rate * weights[i]){ // asks for less than its share, gets what it asks for
+					shares[i] = demand[i];
+					left -= demand[i] * occupancy[i];
+					satisfied[i] = true;
+					changed = true;
+				}
+			}
+
+			if(!changed){
+				for(int i=0;i<processors;i++) if(!satisfied[i]) shares[i] = rate * weights[i];
+				break;
+			}
+		}
+		return shares;
+	}
+
+
+	// at most one grant per slot owned, scaled down if the bus cannot hold them all
+	protected double[] shareSlots(int[] slots){
+
+		double[] shares = new double[processors];
+		for(int slot : slots){
+			if(slot >= 0 && slot < processors) shares[slot] += 1.0 / slots.length;
+		}
+
+		double held = 0;
+		for(int i=0;i<processors;i++){
+			shares[i] = Math.min(shares[i], demand[i]);
+			held += shares[i] * occupancy[i];
+		}
+		if(held > 1) for(int i=0;i<processors;i++) shares[i] /= held;
+
+		return shares;
+	}
+
+
+	// values given, or the defaults of ArbitrationPolicies (fill, or the master index if fill is -1)
+	private int[] perMaster(int[] values, int fill){
+
+		if(values != null && values.length > 0){
+			if(fill != -1 && values.length < processors){
+				throw new IllegalArgumentException(processors + " masters but only " + values.length + " weights");
+			}
+			return values;
+		}
+
+		values = new int[processors];
+		for(int i=0;i<processors;i++) values[i] = fill == -1 ? i : fill;
+		return values;
+	}
+
+
+
+	public ProgramAnalysis getProgram(){
+		return program;
+	}
+
+	public String getPolicy(){
+		return policy;
+	}
+
+	// grants per cycle the master asks for, alone on the bus
+	public double getDemand(int processor){
+		return demand[processor];
+	}
+
+	// bus requests per cycle spent executing, in the loop of the master (0 if it does not execute)
+	public double getRequestsPerExecuteCycle(int processor){
+		return executeCycles[processor] == 0 ? 0 : (double)loopRequests[processor] / executeCycles[processor];
+	}
+
+	// fraction of the cycles the master would hold the bus, alone on it
+	public double getBusDemand(int processor){
+		return demand[processor] * occupancy[processor];
+	}
+
+	public double getBusDemand(){
+		double total = 0;
+		for(int i=0;i<processors;i++) total += getBusDemand(i);
+		return total;
+	}
+
+	public boolean isSaturated(){
+		return getBusDemand() > 1;
+	}
+
+	public double getPredictedUtilisation(){
+		double total = 0;
+		for(int i=0;i<processors;i++) total += grants[i] * occupancy[i];
+		return total;
+	}
+
+	public double getPredictedGrants(int processor){
+		return grants[processor];
+	}
+
+	// predicted cycles per iteration of the loop over cycles alone, infinite if starved, 0 if the master halts
+	public double getSlowdown(int processor){
+
+		if(demand[processor] == 0) return 0;
+		if(grants[processor] == 0) return Double.POSITIVE_INFINITY;
+		return Math.max(1, demand[processor] / grants[processor]);
+	}
+
+	public double getPredictedLoopCycles(int processor){
+		return loopCycles[processor] * getSlowdown(processor);
+	}
+
+
+
+	public void report(PrintStream out){
+
+		for(int i=0;i<processors;i++){
+
+			ProgramAnalysis.Path path = program.getPath(i);
+			int pc = program.entries[i];
+
+			if(path.halts()){
+				out.println("master "+i+" (PC "+pc+"): halts after "+path.getPrefixCycles()+" cycles, no demand");
+				continue;
+			}
+
+			out.println("master "+i+" (PC "+pc+"): loop "+path.getLoop()+", "+loopRequests[i]+" requests in "+loopCycles[i]
+					+" cycles ("+executeCycles[i]+" executing), "+round(demand[i])+" requests/cycle, "
+					+round(getRequestsPerExecuteCycle(i))+" requests/execute cycle, bus demand "+percent(getBusDemand(i)));
+
+			double slowdown = getSlowdown(i);
+			out.println("master "+i+": predicted "+round(grants[i])+" grants/cycle, "
+					+(Double.isInfinite(slowdown) ? "starved" : round(getPredictedLoopCycles(i))+" cycles per iteration (x"+round(slowdown)+")"));
+		}
+
+		out.println("bus demand "+percent(getBusDemand())+" with "+policy+" arbitration: "
+				+(isSaturated() ? "saturated, " : "not saturated, ")+percent(getPredictedUtilisation())+" predicted utilisation");
+	}
+
+
+	private static double round(double value){
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+	private static String percent(double value){
+		return Math.round(value * 1000) / 10.0 + "%";
+	}
+
+
+
+	public static void main(String[] args) throws IOException{
+
+		if(args.length < 2){
+			System.err.println("usage: ContentionAnalysis <memory file | test> <initial PC>... [-arbitration policy]"
+					+ " [-weights w0,w1,...] [-slots s0,s1,...] [-simulate cycles]");
+			System.exit(1);
+		}
+
+		String policy = ArbitrationPolicies.FIXED_PRIORITY;
+		int[] weights = null, slots = null;
+		long simulate = 0;
+
+		int count = 0;
+		int[] pcs = new int[args.length - 1];
+
+		for(int i=1;i<args.length;i++){
+
+			if(args[i].equals("-arbitration")) policy = args[++i];
+			else if(args[i].equals("-weights")) weights = parseInts(args[++i]);
+			else if(args[i].equals("-slots")) slots = parseInts(args[++i]);
+			else if(args[i].equals("-simulate")) simulate = Long.parseLong(args[++i]);
+			else pcs[count++] = Integer.parseInt(args[i]);
+		}
+
+		int[] initialPCs = new int[count];
+		System.arraycopy(pcs, 0, initialPCs, 0, count);
+
+		MemoryImage image;
+		if(args[0].equals("test")){
+			image = new MemoryImage();
+			TestProgram.write(image);
+		}
+		else image = MemoryImageCache.get(new File(args[0]));
+
+		long start = System.nanoTime();
+		ContentionAnalysis analysis = new ContentionAnalysis(new ProgramAnalysis(image, initialPCs), policy, weights, slots);
+		long elapsed = System.nanoTime() - start;
+
+		analysis.report(System.out);
+		System.out.println("analysed in "+elapsed/1000000+" ms");
+
+		if(simulate > 0){
+
+			SystemSimulator simulator = new SystemSimulator(image, initialPCs,
+					ArbitrationPolicies.create(policy, count, weights, slots, 0));
+			long cycles = simulator.run(simulate);
+
+			double held = 0;
+			for(int i=0;i<count;i++){
+				double rate = (double)simulator.grantCounts[i] / cycles;
+				held += rate * analysis.occupancy[i];
+				System.out.println("master "+i+": simulated "+round(rate)+" grants/cycle, predicted "+round(analysis.getPredictedGrants(i)));
+			}
+			System.out.println("simulated "+percent(held)+" utilisation over "+cycles+" cycles");
+		}
+	}
+
+
+	private static int[] parseInts(String list){
+
+		String[] values = list.split(",");
+		int[] ints = new int[values.length];
+		for(int i=0;i<values.length;i++) ints[i] = Integer.parseInt(values[i].trim());
+		return ints;
+	}
+
+}
@@ -0,0 +1,323 @@
+package lsi.instruction;
+
+/*
+ *
+ * Actor represents a crossbar connecting masters to a memory split into several banks, each served by its own
+ * MemoryController.
+ *
+ * Masters are connected to the input and output multiports as for SingleSharedMemoryBus, and the N banks to the
+ * toMemory and fromMemory ports, which are multiports here: channel b of both ports connects bank b. Addresses are
+ * interleaved across banks, address a being held by bank (a / "bank interleave") % N. Every bank controller is
+ * given the full memory file and sees global addresses; it is only ever accessed at the addresses it holds.
+ *
+ * Each bank runs the same two-phase protocol as SingleSharedMemoryBus, independently of the others: on every cycle,
+ * every idle bank arbitrates among the masters requesting one of its addresses (with its own instance of the policy
+ * selected by the "arbitration" parameter), so requests to different banks are granted in the same cycle.
+ *
+ * On top of the per-master grant and wait statistics, the crossbar counts for every bank the grants it issued, the
+ * requests it turned down, either because another master won the bank in that cycle or because the bank was busy
+ * with another transaction, and the cycles in which the bank's bus carried an address or data phase (see
+ * getBankGrants(), getBankConflicts() and getBankBusyCycles()). The busy cycles of the crossbar as a whole are those
+ * in which at least one bank was busy, and its completed transactions are those of all banks; all are printed upon
+ * wrapup when "print statistics" is set.
+ *
+ * The debug port outputs the ID of every master granted a bank. The bus state ports are not driven, as there is one
+ * data and address bus per bank rather than a single one. For the same reason, and as banks always run the blocking
+ * protocol, the "split transactions" and "trace file" parameters and the snoop ports inherited from
+ * SingleSharedMemoryBus are rejected upon initialisation when set or connected; "max outstanding" only applies to
+ * split transactions and is ignored.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ptolemy.data.BooleanToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+
+@SuppressWarnings("serial")
+public class CrossbarMemoryBus extends SingleSharedMemoryBus {
+
+	protected int banks, interleave;
+
+	protected Parameter bankInterleave;
+
+	// per master: request received on the current cycle, and the bank it targets
+	protected RecordToken[] requests;
+
+	// per bank: requesting masters, arbitration, and state of the ongoing transaction
+	protected RequestMask[] bankRequests;
+	protected ArbitrationPolicy[] bankPolicies;
+	protected int[] bankMaster;
+	protected RecordToken[] bankToSend;
+	protected boolean[] bankToMaster;
+
+	protected long[] bankGrants, bankConflicts, bankBusyCycles;
+	protected boolean banksInitialised; // bank state set up, checkpoints can be restored
+
+	public CrossbarMemoryBus(CompositeEntity container, String name)
+			throws NameDuplicationException, IllegalActionException  {
+
+		super(container, name);
+
+		// one channel per bank
+		toMemory.setMultiport(true);
+		fromMemory.setMultiport(true);
+
+		bankInterleave = new Parameter(this, "bank interleave"); // consecutive words held by the same bank
+		bankInterleave.setTypeEquals(BaseType.INT);
+		bankInterleave.setExpression("1");
+
+	}
+
+
+	public void initialize() throws IllegalActionException{
+
+		banksInitialised = false; // restored below, once the banks are set up
+
+		// features of the single bus the banks have no counterpart for, checked before the trace file gets created
+		if(((BooleanToken)splitTransactionMode.getToken()).booleanValue()){
+			throw new IllegalActionException(this, "split transactions are not supported by the crossbar");
+		}
+		if(snoop.getWidth() > 0 || snoopResponse.getWidth() > 0){
+			throw new IllegalActionException(this, "snooping is not supported by the crossbar");
+		}
+		if(!traceFile.stringValue().trim().isEmpty()){
+			throw new IllegalActionException(this, "bus traces are not supported by the crossbar, which has one bus per bank");
+		}
+
+		super.initialize();
+
+		banks = toMemory.getWidth(); // number of banks obtained from the width of the toMemory multiport
+		if(banks == 0) throw new IllegalActionException(this, "No memory bank connected");
+		if(fromMemory.getWidth() != banks){
+			throw new IllegalActionException(this, "toMemory and fromMemory must connect the same number of banks");
+		}
+
+		interleave = ((IntToken)bankInterleave.getToken()).intValue();
+		if(interleave < 1) throw new IllegalActionException(this, "bank interleave must be positive");
+
+		requests = new RecordToken[masters];
+
+		bankRequests = new RequestMask[banks];
+		bankPolicies = new ArbitrationPolicy[banks];
+		bankMaster = new int[banks];
+		bankToSend = new RecordToken[banks];
+		bankToMaster = new boolean[banks];
+		bankGrants = new long[banks];
+		bankConflicts = new long[banks];
+		bankBusyCycles = new long[banks];
+
+		for(int b=0;b<banks;b++){
+
+			bankRequests[b] = new RequestMask(masters);
+			try{
+				bankPolicies[b] = createArbitrationPolicy(); // independent arbitration state per bank
+				bankPolicies[b].initialize(masters);
+			}
+			catch(IllegalArgumentException e){
+				throw new IllegalActionException(this, e.getMessage());
+			}
+			bankMaster[b] = -1; // all banks idle upon initialisation
+		}
+
+		banksInitialised = true;
+		resume();
+
+	}
+
+
+	protected boolean resume() throws IllegalActionException{
+
+		if(!banksInitialised || !super.resume()) return false;
+
+		for(int b=0;b<banks;b++){
+			if(bankToSend[b]!=null){
+				requestTick(1);
+				break;
+			}
+		}
+		return true;
+	}
+
+
+	public void fire() throws IllegalActionException{
+
+
+		// collect the requests received on the current cycle and sort them by bank
+		for(int b=0;b<banks;b++) bankRequests[b].clear();
+
+		for(int i=0;i<masters;i++){
+
+			if(input.hasToken(i)){
+				requests[i] = (RecordToken)input.get(i);
+				bankRequests[getBank(Instruction.fromToken(requests[i]).address)].set(i);
+			}
+			else requests[i] = null;
+
+		}
+
+
+		boolean clock = tick();
+
+		if(clock){
+
+			boolean busy = false;
+
+			for(int b=0;b<banks;b++){
+
+				if(bankToSend[b]==null) continue; // nothing driven to this bank's bus
+
+				bankBusyCycles[b]++;
+				busy = true;
+
+				if(bankToMaster[b]){ // second phase of a read transaction
+					output.send(bankMaster[b], bankToSend[b]); // send response to active master
+					bankMaster[b]=-1; // finish transaction
+					completedTransactions++;
+				}
+				else{ // first phase of a read or write transaction
+					toMemory.send(b, bankToSend[b]); // send request to the bank
+					output.send(bankMaster[b], bankToSend[b]); // GRANT signal
+					debug.send(0, debugTokens[bankMaster[b]]); // send out debug info
+
+					// if request is a WRITE, close the transaction right after sending it to the bank
+					if(Instruction.fromToken(bankToSend[b]).type==Instruction.WRITE){
+						bankMaster[b]=-1;
+						completedTransactions++;
+					}
+				}
+
+				bankToSend[b]=null; // confirm destination has been notified
+			}
+
+			if(busy) busyCycles++;
+		}
+
+
+		for(int b=0;b<banks;b++){
+
+			if(bankMaster[b]!=-1){ // transaction ongoing on this bank, check if there's data to be sent back
+
+				if(bankToSend[b]==null && fromMemory.hasToken(b)){
+					bankToSend[b] = (RecordToken)fromMemory.get(b); // sent to the active master over the next clock cycle
+					bankToMaster[b] = true;
+				}
+
+				if(!clock) bankConflicts[b] += bankRequests[b].cardinality(); // bank busy, all its requests turned down
+			}
+
+			else if(!clock && !bankRequests[b].isEmpty()){ // idle bank, arbitrate among its requests
+
+				int master = bankPolicies[b].arbitrate(bankRequests[b], cycle);
+
+				if(master!=-1){
+					bankMaster[b] = master;
+					bankToSend[b] = requests[master]; // queue the request over the next clock cycle
+					bankToMaster[b] = false;
+					requests[master] = null;
+					bankRequests[b].clear(master);
+
+					grantCounts[master]++;
+					bankGrants[b]++;
+				}
+
+				bankConflicts[b] += bankRequests[b].cardinality(); // requests lost to the granted master
+			}
+		}
+
+
+		// remaining requests have been discarded, their masters will retry on the next cycle
+		for(int i=0;i<masters;i++){
+			if(requests[i]!=null){
+				waitCycles[i]++;
+				requests[i] = null;
+			}
+		}
+
+		for(int b=0;b<banks;b++){
+			if(bankToSend[b]!=null){
+				requestTick(1); // idle cycles can be skipped until no bank has anything to send
+				break;
+			}
+		}
+
+	}
+
+
+	public void saveState(DataOutputStream out) throws IOException{
+
+		super.saveState(out);
+
+		out.writeInt(banks);
+		for(int b=0;b<banks;b++){
+			out.writeInt(bankMaster[b]);
+			writeToken(out, bankToSend[b]);
+			out.writeBoolean(bankToMaster[b]);
+			out.writeLong(bankGrants[b]);
+			out.writeLong(bankConflicts[b]);
+			out.writeLong(bankBusyCycles[b]);
+			if(bankPolicies[b] instanceof Checkpointable) ((Checkpointable)bankPolicies[b]).saveState(out);
+		}
+	}
+
+
+	public void loadState(DataInputStream in) throws IOException{
+
+		super.loadState(in);
+
+		Checkpoint.checkLength(in.readInt(), banks);
+		for(int b=0;b<banks;b++){
+			bankMaster[b] = in.readInt();
+			bankToSend[b] = readToken(in);
+			bankToMaster[b] = in.readBoolean();
+			bankGrants[b] = in.readLong();
+			bankConflicts[b] = in.readLong();
+			bankBusyCycles[b] = in.readLong();
+			if(bankPolicies[b] instanceof Checkpointable) ((Checkpointable)bankPolicies[b]).loadState(in);
+		}
+	}
+
+
+	protected int getBank(int address) throws IllegalActionException{
+
+		if(address < 0 || address >= MemoryImage.SIZE){
+			throw new IllegalActionException(this, "address "+address+" is out of memory");
+		}
+		return (address / interleave) % banks;
+	}
+
+
+	public long[] getBankGrants(){
+		return bankGrants.clone();
+	}
+
+	public long[] getBankConflicts(){
+		return bankConflicts.clone();
+	}
+
+	public long[] getBankBusyCycles(){
+		return bankBusyCycles.clone();
+	}
+
+
+	public void wrapup() throws IllegalActionException{
+
+		super.wrapup();
+		if(bankGrants==null || !printing) return; // initialisation did not complete, or statistics not printed
+
+		for(int b=0;b<banks;b++){
+			System.out.println(getName()+" bank "+b+": "+bankGrants[b]+" grants, "+bankConflicts[b]+" conflicts, "
+					+bankBusyCycles[b]+"/"+cycle+" busy cycles");
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Fixed priority arbitration, with master 0 having the highest priority and master n the lowest.
+ * 
+ */
+
+public class FixedPriorityArbitration implements ArbitrationPolicy {
+
+	public void initialize(int masters){
+	}
+
+	public int arbitrate(RequestMask requests, long cycle){
+
+		return requests.nextSetBit(0);   // lowest requesting index, 0 as the highest priority
+	}
+
+}
@@ -2,7 +2,6 @@ package lsi.instruction;
 
 import ptolemy.data.IntToken;
 import ptolemy.data.RecordToken;
-import ptolemy.data.Token;
 import ptolemy.data.type.BaseType;
 import ptolemy.data.type.RecordType;
 import ptolemy.data.type.Type;
@@ -21,7 +20,8 @@ import ptolemy.kernel.util.IllegalActionException;
  * In case of EXECUTE, the instance will have type=0 and time=TIME, where TIME is the time it takes for the PE to process the instruction; data and address can have arbitrary values and are unused.
  * In case of JUMP, the instance will have type=3 and address=ADDRESS, where ADDRESS is the content of the register that will be assigned to the PE program counter; data and time can have arbitrary values and are unused.
  * 
- * Instances are able to generate standard format RecordToken instances representing themselves.
+ * Instances are able to generate standard format RecordToken instances representing themselves. The token is built
+ * once per instance and reused afterwards (see lsi.instruction.InstructionToken), as is the record type.
  * 
  */
 
@@ -34,13 +34,18 @@ public class Instruction {
 	public final static int WRITE = 2;
 	public final static int JUMP = 3;
 
-	
+	static final String[] LABELS = {"type", "data", "address", "time"};
+
+	private static final RecordType TOKEN_TYPE = new RecordType(LABELS,
+			new Type[]{BaseType.INT, BaseType.INT, BaseType.INT, BaseType.INT});
 	
 	
 	public final int data;
 	public final int type;
 	public final int address;
 	public final int time;
+
+	private volatile InstructionToken token; // built on first use, the fields above never change
 	
 	public Instruction(int type, int data, int address, int time){
 		
@@ -53,39 +58,41 @@ public class Instruction {
 	
 	public RecordToken getToken() throws IllegalActionException{
 
-		String[] labels_ = new String[4];
-        labels_[0] = "type";
-        labels_[1] = "data";
-        labels_[2] = "address";
-        labels_[3] = "time";
-
-        Token[] values_ = new Token[4];
-		values_[0] = new IntToken(this.type);
-	    values_[1] = new IntToken(this.data);
-	    values_[2] = new IntToken(this.address); 
-	    values_[3] = new IntToken(this.time); 
-	    
-	    return new RecordToken(labels_, values_);
+		InstructionToken t = token;
+		if(t == null){
+			t = new InstructionToken(this); // threads racing here may each build one, all equal
+			token = t;
+		}
+		return t;
 	}
 
 	
 	
 	public static RecordType getTokenType(){
 		
-		String[] labels_ = new String[4];
-        labels_[0] = "type";
-        labels_[1] = "data";
-        labels_[2] = "address";
-        labels_[3] = "time";
-        
-        Type[] types = new Type[4];
-        types[0] = BaseType.INT;
-        types[1] = BaseType.INT;
-        types[2] = BaseType.INT;
-        types[3] = BaseType.INT;
-        		
-        return new RecordType(labels_, types);
-        
+		return TOKEN_TYPE;
+	}
+
+
+	// reads an Instruction back from a standard format token,
+	// without label lookups if the token was built by this class
+	public static Instruction fromToken(RecordToken token){
+
+		if(token instanceof InstructionToken){
+			return ((InstructionToken)token).getInstruction();
+		}
+
+		return new Instruction(
+				((IntToken)token.get("type")).intValue(),
+				((IntToken)token.get("data")).intValue(),
+				((IntToken)token.get("address")).intValue(),
+				((IntToken)token.get("time")).intValue());
+	}
+
+
+	public boolean equals(int type, int data, int address, int time){
+		
+		return this.type==type && this.data==data && this.address==address && this.time==time;
 	}
 	
 	
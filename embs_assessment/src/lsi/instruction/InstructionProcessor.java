@@ -19,31 +19,56 @@ package lsi.instruction;
  * 
  * Actor has a debug port which shows which state of the state machine it is in.
  * 
+ * When skipping idle cycles (see lsi.instruction.ClockedActor), an EXECUTE instruction is not counted down
+ * cycle by cycle: the processor is fired again on the cycle its timer expires.
+ * 
+ * The processor keeps performance counters:
+ * 
+ * - cycles spent in each state, indexed by state (see getStateCycles())
+ * - instructions retired, indexed by instruction type: an EXECUTE once its timer expires, a READ once its data is
+ *   received, a WRITE once granted and a JUMP once decoded (see getRetiredInstructions())
+ * - retry cycles: cycles in which a request was issued again after not being granted (see getRetryCycles())
+ * - CPI: cycles per retired instruction (see getCPI())
+ * 
+ * Counters are plain increments on every tick, cheap enough to be always on. When the "sampling period" parameter
+ * is positive, a record holding all of them (see getCountersType()) is also sent on the counters port every that
+ * many cycles, so their evolution can be plotted or logged as the model runs. They are only printed upon wrapup
+ * when "print statistics" is set (see lsi.instruction.ClockedActor).
+ * 
  * 
  */
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import ptolemy.actor.NoRoomException;
-import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
+import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
+import ptolemy.data.LongToken;
 import ptolemy.data.RecordToken;
+import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.type.BaseType;
+import ptolemy.data.type.RecordType;
+import ptolemy.data.type.Type;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 
 @SuppressWarnings("serial")
-public class InstructionProcessor extends TypedAtomicActor{
+public class InstructionProcessor extends ClockedActor{
 
-	protected TypedIOPort input, output, debug, clk;
-	protected Parameter initPC;
+	protected TypedIOPort input, output, debug, counters;
+	protected Parameter initPC, samplingPeriod;
 	protected int PC;
 
 
 	protected int state;
 	protected int timer=0;
+	protected long lastCycle; // cycle of the previous tick
 	protected int raddress;
 	protected int rdata;
 
@@ -55,6 +80,25 @@ public class InstructionProcessor extends TypedAtomicActor{
 	protected static final int DECODE = 4;
 	protected static final int DATA_WAIT = 5;
 
+	protected static final String[] STATE_NAMES = {"EXECUTE", "READ", "WRITE", "FETCH", "DECODE", "DATA_WAIT"};
+	protected static final String[] TYPE_NAMES = {"EXECUTE", "READ", "WRITE", "JUMP"};
+
+
+	// performance counters
+	protected long[] stateCycles = new long[STATE_NAMES.length]; // per state
+	protected long[] retired = new long[TYPE_NAMES.length]; // per instruction type
+	protected long retryCycles;
+	protected boolean requested; // request issued in the current state, any other is a retry
+
+	protected long sampling, nextSample;
+
+	private static final String[] COUNTER_LABELS = {"fetchCycles", "decodeCycles", "readCycles", "writeCycles",
+		"dataWaitCycles", "executeCycles", "executeRetired", "readRetired", "writeRetired", "jumpRetired", "retryCycles", "cpi"};
+
+	private static final RecordType COUNTERS_TYPE = new RecordType(COUNTER_LABELS, new Type[]{
+		BaseType.LONG, BaseType.LONG, BaseType.LONG, BaseType.LONG, BaseType.LONG, BaseType.LONG,
+		BaseType.LONG, BaseType.LONG, BaseType.LONG, BaseType.LONG, BaseType.LONG, BaseType.DOUBLE});
+
 
 
 
@@ -69,7 +113,6 @@ public class InstructionProcessor extends TypedAtomicActor{
 		input = new TypedIOPort(this, "input", true, false);
 		output = new TypedIOPort(this, "output", false, true);
 		debug = new TypedIOPort(this, "debug", false, true);
-		clk = new TypedIOPort(this, "clk", true, false);
 
 		input.setTypeEquals(Instruction.getTokenType());
 		output.setTypeEquals(Instruction.getTokenType());
@@ -80,14 +123,37 @@ public class InstructionProcessor extends TypedAtomicActor{
 
 
 		initPC.setTypeEquals(BaseType.INT);
+
+
+		// performance counters, sampled every "sampling period" cycles (0: only printed upon wrapup)
+		counters = new TypedIOPort(this, "counters", false, true);
+		counters.setTypeEquals(COUNTERS_TYPE);
+
+		samplingPeriod = new Parameter(this, "sampling period");
+		samplingPeriod.setTypeEquals(BaseType.INT);
+		samplingPeriod.setExpression("0");
 	}
 
 
 	public void initialize() throws IllegalActionException{
 
+		super.initialize();
 		PC = ((IntToken)initPC.getToken()).intValue();
 		setState(InstructionProcessor.FETCH);
 		timer=0;
+		lastCycle=0;
+
+		stateCycles = new long[STATE_NAMES.length];
+		retired = new long[TYPE_NAMES.length];
+		retryCycles = 0;
+		requested = false;
+
+		sampling = ((IntToken)samplingPeriod.getToken()).intValue();
+		if(sampling < 0) throw new IllegalActionException(this, "sampling period cannot be negative");
+		nextSample = sampling;
+
+		if(restoreState()) scheduleNextTick(); // resumes where the checkpoint was taken
+		else requestTick(1); // first cycle
 	}
 
 
@@ -97,10 +163,11 @@ public class InstructionProcessor extends TypedAtomicActor{
 
 
 
-		if(clk.hasToken(0)){
+		if(tick()){
 
-			clk.get(0); // consume clock token
-			if(timer!=0) timer--;  // decrement timer
+			if(timer!=0) timer = (int)Math.max(0, timer - (cycle - lastCycle));  // decrement timer, by the cycles skipped if any
+			stateCycles[state] += cycle - lastCycle; // skipped cycles were all spent in the current state
+			lastCycle = cycle;
 
 
 			//
@@ -121,6 +188,7 @@ public class InstructionProcessor extends TypedAtomicActor{
 				//
 				else if(state == InstructionProcessor.WRITE){
 					input.get(0); // GRANT received and consumed
+					retired[Instruction.WRITE]++;
 					setState(InstructionProcessor.FETCH); // go back to FETCH state in the next cycle
 				}
 				//
@@ -135,6 +203,7 @@ public class InstructionProcessor extends TypedAtomicActor{
 				//
 				else if(state == InstructionProcessor.DATA_WAIT){
 					input.get(0); // DATA ACK received
+					retired[Instruction.READ]++;
 					setState(InstructionProcessor.FETCH);// go back to FETCH state  in the next cycle
 				}
 				//
@@ -142,27 +211,25 @@ public class InstructionProcessor extends TypedAtomicActor{
 				//
 				else if(state== InstructionProcessor.DECODE){
 
-					RecordToken token = (RecordToken)input.get(0);
-					IntToken insttype = (IntToken) token.get("type");
+					Instruction inst = Instruction.fromToken((RecordToken)input.get(0));
 
-					if(insttype.intValue()==Instruction.EXECUTE){   // must wait for a number of clock cycles
+					if(inst.type==Instruction.EXECUTE){   // must wait for a number of clock cycles
 
-						IntToken cycles = (IntToken) token.get("time"); 
-						timer = cycles.intValue(); // sets timer
+						timer = inst.time; // sets timer
 						setState(InstructionProcessor.EXECUTE);  // changes state to EXECUTE
 					}
-					else if(insttype.intValue()==Instruction.JUMP){  // must change the content of the PC
-						IntToken newPC = (IntToken) token.get("address"); 
-						PC = newPC.intValue(); // updates the PC
+					else if(inst.type==Instruction.JUMP){  // must change the content of the PC
+						PC = inst.address; // updates the PC
+						retired[Instruction.JUMP]++;
 						setState(InstructionProcessor.FETCH); // changes state to FETCH
 					}
-					else if(insttype.intValue()==Instruction.WRITE){  // must issue a write request
-						raddress = ((IntToken) token.get("address")).intValue();
-						rdata = ((IntToken) token.get("data")).intValue();
+					else if(inst.type==Instruction.WRITE){  // must issue a write request
+						raddress = inst.address;
+						rdata = inst.data;
 						setState(InstructionProcessor.WRITE); // changes state to WRITE
 					}
-					else if(insttype.intValue()==Instruction.READ){  // must issue a read request
-						raddress = ((IntToken) token.get("address")).intValue();
+					else if(inst.type==Instruction.READ){  // must issue a read request
+						raddress = inst.address;
 						setState(InstructionProcessor.READ); // changes state to READ
 					}
 				}
@@ -178,6 +245,7 @@ public class InstructionProcessor extends TypedAtomicActor{
 				//
 				if(state== InstructionProcessor.EXECUTE){
 					if(timer==0){ // check if current execution has been finished
+						retired[Instruction.EXECUTE]++;
 						setState(InstructionProcessor.FETCH);  // if finished, move to FETCH state
 					}			
 				}
@@ -185,24 +253,87 @@ public class InstructionProcessor extends TypedAtomicActor{
 				// WRITE (again, potentially), no state change
 				//
 				else if(state == InstructionProcessor.WRITE){
-					output.send(0, new Instruction(Instruction.WRITE, rdata, raddress, -1).getToken());
+					countRequest();
+					output.send(0, InstructionToken.valueOf(Instruction.WRITE, rdata, raddress, -1)); // interned, retries resend the same token
 				}
 				//
 				// READ (again, potentially), no state change
 				//
 				else if(state == InstructionProcessor.READ){
-					output.send(0, new Instruction(Instruction.READ, -1, raddress, -1).getToken());
+					countRequest();
+					output.send(0, InstructionToken.valueOf(Instruction.READ, -1, raddress, -1));
 				}
 				//
 				// FETCH (again, potentially), no state change
 				//
 				else if(state == InstructionProcessor.FETCH){
-					output.send(0, new Instruction(Instruction.READ, -1, PC, -1).getToken()); // issues a read request to the memory position in the PC
+					countRequest();
+					output.send(0, InstructionToken.valueOf(Instruction.READ, -1, PC, -1)); // issues a read request to the memory position in the PC
 				}
 			}
+
+			if(sampling > 0 && cycle >= nextSample){
+				counters.send(0, getCounters());
+				nextSample = (cycle / sampling + 1) * sampling;
+			}
 		}
 
+		scheduleNextTick();
+
+	}
+
+
+	// when skipping idle cycles, an EXECUTE only needs to be fired again once its timer expires (or for a sample)
+	protected void scheduleNextTick() throws IllegalActionException{
+
+		long wait = state==InstructionProcessor.EXECUTE ? timer : 1;
+		if(sampling > 0) wait = Math.min(wait, nextSample - cycle);
+		requestTick(wait);
+	}
+
+
+	public void saveState(DataOutputStream out) throws IOException{
+
+		super.saveState(out);
+
+		out.writeInt(PC);
+		out.writeInt(state);
+		out.writeInt(timer);
+		out.writeLong(lastCycle);
+		out.writeInt(raddress);
+		out.writeInt(rdata);
+
+		Checkpoint.writeLongs(out, stateCycles);
+		Checkpoint.writeLongs(out, retired);
+		out.writeLong(retryCycles);
+		out.writeBoolean(requested);
+		out.writeLong(nextSample);
+	}
+
 
+	public void loadState(DataInputStream in) throws IOException{
+
+		super.loadState(in);
+
+		PC = in.readInt();
+		state = in.readInt(); // the debug port already showed the state in the run the checkpoint was taken from
+		timer = in.readInt();
+		lastCycle = in.readLong();
+		raddress = in.readInt();
+		rdata = in.readInt();
+
+		Checkpoint.readLongs(in, stateCycles);
+		Checkpoint.readLongs(in, retired);
+		retryCycles = in.readLong();
+		requested = in.readBoolean();
+		nextSample = in.readLong();
+	}
+
+
+	protected void countRequest(){
+
+		if(requested) retryCycles++; // previous request not granted
+		requested = true;
 	}
 
 
@@ -211,11 +342,71 @@ public class InstructionProcessor extends TypedAtomicActor{
 	protected void setState(int newstate) throws NoRoomException, IllegalActionException{
 
 		state = newstate;
+		requested = false;
 		debug.send(0,  new IntToken(state));
 
 	}
 
 
 
+	public long[] getStateCycles(){
+		return stateCycles.clone();
+	}
+
+	public long[] getRetiredInstructions(){
+		return retired.clone();
+	}
+
+	public long getRetryCycles(){
+		return retryCycles;
+	}
+
+	public long getRetiredTotal(){
+		long total = 0;
+		for(long count : retired) total += count;
+		return total;
+	}
+
+	// cycles per retired instruction, 0 if none retired yet
+	public double getCPI(){
+		long total = getRetiredTotal();
+		return total == 0 ? 0 : (double)lastCycle / total;
+	}
+
+
+	public static RecordType getCountersType(){
+		return COUNTERS_TYPE;
+	}
+
+	public RecordToken getCounters() throws IllegalActionException{
+
+		return new RecordToken(COUNTER_LABELS, new Token[]{
+				new LongToken(stateCycles[FETCH]), new LongToken(stateCycles[DECODE]),
+				new LongToken(stateCycles[READ]), new LongToken(stateCycles[WRITE]),
+				new LongToken(stateCycles[DATA_WAIT]), new LongToken(stateCycles[EXECUTE]),
+				new LongToken(retired[Instruction.EXECUTE]), new LongToken(retired[Instruction.READ]),
+				new LongToken(retired[Instruction.WRITE]), new LongToken(retired[Instruction.JUMP]),
+				new LongToken(retryCycles), new DoubleToken(getCPI())});
+	}
+
+
+	public void wrapup() throws IllegalActionException{
+
+		super.wrapup();
+		if(!printing) return;
+
+		StringBuilder states = new StringBuilder();
+		for(int s=0;s<STATE_NAMES.length;s++) states.append(s==0 ? "" : ", ").append(STATE_NAMES[s]+" "+stateCycles[s]);
+
+		StringBuilder types = new StringBuilder();
+		for(int t=0;t<TYPE_NAMES.length;t++) types.append(t==0 ? "" : ", ").append(TYPE_NAMES[t]+" "+retired[t]);
+
+		System.out.println(getName()+" cycles: "+states);
+		System.out.println(getName()+" retired: "+types+" ("+getRetiredTotal()+" instructions, "+retryCycles
+				+" retry cycles, CPI "+Math.round(getCPI()*100)/100.0+")");
+	}
+
+
+
 
 }
@@ -0,0 +1,85 @@
+package lsi.instruction;
+
+/*
+ *
+ * RecordToken carrying an lsi.instruction.Instruction, in the standard format returned by Instruction.getTokenType().
+ *
+ * Besides the record fields, the token keeps a reference to the Instruction it was built from, so actors on the
+ * receiving end can recover the instruction fields directly (see Instruction.fromToken) instead of looking
+ * them up by label.
+ *
+ * Tokens are immutable and can be reused freely. valueOf() interns them in a bounded, direct-mapped table, so
+ * the same request issued on every retry cycle, or the same memory word read over and over, is sent as the same
+ * token instance without allocating anything. The table is shared by all threads: its slots are read and written
+ * with volatile semantics, so a token found there is always fully built.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+@SuppressWarnings("serial")
+public class InstructionToken extends RecordToken {
+
+	private static final int CACHE_BITS = 14;
+	private static final int CACHE_MASK = (1 << CACHE_BITS) - 1;
+
+	// direct-mapped, a colliding instruction simply replaces the previous entry
+	private static final AtomicReferenceArray<InstructionToken> cache = new AtomicReferenceArray<InstructionToken>(1 << CACHE_BITS);
+
+	private final Instruction instruction;
+
+
+
+	InstructionToken(Instruction instruction) throws IllegalActionException{
+
+		super(Instruction.LABELS, new Token[]{
+				new IntToken(instruction.type),
+				new IntToken(instruction.data),
+				new IntToken(instruction.address),
+				new IntToken(instruction.time)});
+
+		this.instruction = instruction;
+	}
+
+
+	public Instruction getInstruction(){
+		return instruction;
+	}
+
+
+
+	public static InstructionToken valueOf(int type, int data, int address, int time) throws IllegalActionException{
+
+		int slot = hash(type, data, address, time) & CACHE_MASK;
+		InstructionToken token = cache.get(slot);
+
+		if(token == null || !token.instruction.equals(type, data, address, time)){
+			token = new InstructionToken(new Instruction(type, data, address, time));
+			cache.set(slot, token);
+		}
+
+		return token;
+	}
+
+
+	public static InstructionToken valueOf(long word) throws IllegalActionException{
+
+		return valueOf(MemoryImage.typeOf(word), MemoryImage.dataOf(word), MemoryImage.addressOf(word), MemoryImage.timeOf(word));
+	}
+
+
+	private static int hash(int type, int data, int address, int time){
+
+		int h = type;
+		h = 31 * h + data;
+		h = 31 * h + address;
+		h = 31 * h + time;
+		return h ^ (h >>> CACHE_BITS); // fold the high bits into the slot index
+	}
+
+}
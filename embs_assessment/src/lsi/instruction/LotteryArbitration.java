@@ -0,0 +1,63 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Lottery arbitration: among the requesting masters, master i is granted the bus with a probability proportional
+ * to its number of tickets. Draws come from a seeded generator, so simulations are repeatable.
+ * 
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class LotteryArbitration implements ArbitrationPolicy, Checkpointable {
+
+	protected final int[] tickets;
+	protected final long seed;
+	protected Random random;
+
+	public LotteryArbitration(int[] tickets, long seed){
+
+		for(int i=0;i<tickets.length;i++){
+			if(tickets[i] < 1) throw new IllegalArgumentException("tickets of master " + i + " must be positive");
+		}
+		this.tickets = tickets.clone();
+		this.seed = seed;
+	}
+
+	public void initialize(int masters){
+
+		if(tickets.length < masters){
+			throw new IllegalArgumentException(masters + " masters but only " + tickets.length + " ticket counts");
+		}
+		random = new Random(seed); // same draws on every run
+	}
+
+	public int arbitrate(RequestMask requests, long cycle){
+
+		int total = 0;
+		for(int i=requests.nextSetBit(0); i!=-1; i=requests.nextSetBit(i+1)){
+			total += tickets[i];
+		}
+		if(total == 0) return -1;
+
+		int draw = random.nextInt(total);
+		for(int i=requests.nextSetBit(0); i!=-1; i=requests.nextSetBit(i+1)){
+			draw -= tickets[i];
+			if(draw < 0) return i;
+		}
+
+		return -1; // not reached
+	}
+
+	public void saveState(DataOutputStream out) throws IOException{
+		Checkpoint.writeRandom(out, random);
+	}
+
+	public void loadState(DataInputStream in) throws IOException{
+		random = Checkpoint.readRandom(in);
+	}
+
+}
@@ -0,0 +1,413 @@
+package lsi.instruction;
+
+/*
+ *
+ * Assembles and validates LSI programs ahead of time, so mistakes in a memory file are reported with their line
+ * rather than found by the MemoryController halfway through a run, and compiles them into a binary image (see
+ * lsi.instruction.MemoryImageFile) which loads without any parsing.
+ *
+ * Each line defines one memory position, in either form:
+ *
+ * - the original 5 columns: storage address, type, data, address, time
+ * - symbolic, as printed by Instruction.toString() and the memory dumps: "R 10", "W 21 4096" (address then data),
+ *   "X 1000", "J 100" or "D 5", optionally preceded by the storage address ("7 J 100"). Without it, the line
+ *   defines the position following the one defined by the previous line (0 for the first one)
+ *
+ * Both forms can be mixed. Blank lines are ignored, as is everything after a '#'. Mnemonics can be given in full
+ * (READ, WRITE, EXECUTE, JUMP, DATA) and in either case.
+ *
+ * Lines are checked for missing or extra columns, non-numeric values, unknown types, storage and bus addresses out
+ * of memory, negative EXECUTE times and values that do not fit in a memory word (see MemoryImage), all reported as
+ * errors. Positions defined more than once (the last definition wins, as when loading the file) and data words that
+ * do not fit on the 16-bit data sub-bus are reported as warnings.
+ *
+ * Can be run from the command line:
+ *
+ *     java lsi.instruction.MemoryAssembler <memory file> [binary image] [-pc n]...
+ *
+ * which prints the errors and warnings, writes the binary image if there are no errors, and prints a static report
+ * of the program run from the given initial PCs (0 if none, see lsi.instruction.ProgramAnalysis): reachable code
+ * and dead code, basic blocks with their estimated cycles, and the loop each processor ends up in.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+public class MemoryAssembler {
+
+	protected final MemoryImage memory;
+	protected final int[] definedOn = new int[MemoryImage.SIZE]; // line defining each position, 0 if none
+	protected final List<String> errors = new ArrayList<String>();
+	protected final List<String> warnings = new ArrayList<String>();
+
+	protected String source = "";
+	protected int next; // position defined by a symbolic line without storage address
+	protected int definitions;
+
+
+
+	public MemoryAssembler(){
+		this(new MemoryImage());
+	}
+
+
+	// assembles into the given image, whose other positions are left unchanged
+	public MemoryAssembler(MemoryImage memory){
+		this.memory = memory;
+	}
+
+
+
+	public void assemble(File file) throws IOException{
+		assemble(new FileReader(file), file.getPath());
+	}
+
+
+	// reads the whole source, closing it; returns whether it assembled without errors
+	public boolean assemble(Reader in, String source) throws IOException{
+
+		this.source = source;
+
+		BufferedReader r = new BufferedReader(in);
+		try{
+			String line;
+			int number = 0;
+			while((line = r.readLine()) != null) assembleLine(line, ++number);
+		}
+		finally{
+			r.close();
+		}
+		return errors.isEmpty();
+	}
+
+
+	public void assembleLine(String line, int number){
+
+		int comment = line.indexOf('#');
+		if(comment != -1) line = line.substring(0, comment);
+
+		StringTokenizer st = new StringTokenizer(line);
+		int count = st.countTokens();
+		if(count == 0) return;
+
+		String[] tokens = new String[count];
+		for(int i=0;i<count;i++) tokens[i] = st.nextToken();
+
+		try{
+			if(isNumber(tokens[0]) && (count == 1 || isNumber(tokens[1]))) assembleColumns(tokens, number);
+			else assembleSymbolic(tokens, number);
+		}
+		catch(IllegalArgumentException e){ // out of range for a memory word, see MemoryImage.pack
+			error(number, e.getMessage());
+		}
+	}
+
+
+	protected void assembleColumns(String[] tokens, int number){
+
+		if(tokens.length != 5){
+			error(number, "5 columns expected (storage address, type, data, address, time), " + tokens.length + " found");
+			return;
+		}
+
+		int[] values = new int[5];
+		for(int i=0;i<5;i++){
+			Integer value = parse(tokens[i], number);
+			if(value == null) return;
+			values[i] = value;
+		}
+
+		define(values[0], values[1], values[2], values[3], values[4], number);
+	}
+
+
+	protected void assembleSymbolic(String[] tokens, int number){
+
+		int position = next;
+		int first = 0;
+
+		if(isNumber(tokens[0])){
+			Integer storage = parse(tokens[0], number);
+			if(storage == null) return;
+			position = storage;
+			first = 1;
+		}
+
+		String mnemonic = tokens[first].toUpperCase(Locale.ROOT);
+		int type;
+		int operands = 1;
+
+		if(mnemonic.equals("R") || mnemonic.equals("READ")) type = Instruction.READ;
+		else if(mnemonic.equals("W") || mnemonic.equals("WRITE")){
+			type = Instruction.WRITE;
+			operands = 2;
+		}
+		else if(mnemonic.equals("X") || mnemonic.equals("EXECUTE")) type = Instruction.EXECUTE;
+		else if(mnemonic.equals("J") || mnemonic.equals("JUMP")) type = Instruction.JUMP;
+		else if(mnemonic.equals("D") || mnemonic.equals("DATA")) type = Instruction.DATA;
+		else{
+			error(number, "unknown instruction " + tokens[first]);
+			return;
+		}
+
+		if(tokens.length - first - 1 != operands){
+			error(number, tokens[first] + " takes " + operands + (operands == 1 ? " operand, " : " operands, ")
+					+ (tokens.length - first - 1) + " found");
+			return;
+		}
+
+		Integer operand = parse(tokens[first + 1], number);
+		if(operand == null) return;
+
+		if(type==Instruction.READ || type==Instruction.JUMP) define(position, type, -1, operand, -1, number);
+		else if(type==Instruction.EXECUTE) define(position, type, -1, -1, operand, number);
+		else if(type==Instruction.DATA) define(position, type, operand, -1, -1, number);
+		else{
+			Integer data = parse(tokens[first + 2], number);
+			if(data == null) return;
+			define(position, type, data, operand, -1, number);
+		}
+	}
+
+
+	protected void define(int position, int type, int data, int address, int time, int number){
+
+		if(position < 0 || position >= MemoryImage.SIZE){
+			error(number, "storage address " + position + " out of memory");
+			return;
+		}
+
+		if(type==Instruction.READ || type==Instruction.WRITE || type==Instruction.JUMP){
+			if(address < 0 || address >= MemoryImage.SIZE){
+				error(number, "address " + address + " out of memory");
+				return;
+			}
+		}
+		else if(type==Instruction.EXECUTE){
+			if(time < 0){
+				error(number, "negative EXECUTE time " + time);
+				return;
+			}
+		}
+		else if(type!=Instruction.DATA){
+			error(number, "unknown type " + type);
+			return;
+		}
+
+		memory.set(position, type, data, address, time); // checks the ranges of the packed fields
+
+		if((type==Instruction.WRITE || type==Instruction.DATA) && (data < -1 || data > 0xFFFF)){
+			warning(number, "data " + data + " does not fit on the data sub-bus, driven as -1");
+		}
+
+		if(definedOn[position] != 0) warning(number, "position " + position + " already defined on line " + definedOn[position]);
+		else definitions++;
+		definedOn[position] = number;
+		next = position + 1;
+	}
+
+
+
+	private static boolean isNumber(String token){
+
+		int i = token.startsWith("-") || token.startsWith("+") ? 1 : 0;
+		if(i == token.length()) return false;
+		for(;i<token.length();i++) if(!Character.isDigit(token.charAt(i))) return false;
+		return true;
+	}
+
+
+	private Integer parse(String token, int number){
+
+		try{
+			return Integer.valueOf(token);
+		}
+		catch(NumberFormatException e){
+			error(number, "not a number: " + token);
+			return null;
+		}
+	}
+
+
+	protected void error(int number, String message){
+		errors.add(source + ":" + number + ": " + message);
+	}
+
+	protected void warning(int number, String message){
+		warnings.add(source + ":" + number + ": warning: " + message);
+	}
+
+
+
+	public MemoryImage getMemory(){
+		return memory;
+	}
+
+	public List<String> getErrors(){
+		return Collections.unmodifiableList(errors);
+	}
+
+	public List<String> getWarnings(){
+		return Collections.unmodifiableList(warnings);
+	}
+
+	public boolean hasErrors(){
+		return !errors.isEmpty();
+	}
+
+	// positions defined by the source
+	public BitSet getDefined(){
+
+		BitSet defined = new BitSet(MemoryImage.SIZE);
+		for(int p=0;p<MemoryImage.SIZE;p++) if(definedOn[p] != 0) defined.set(p);
+		return defined;
+	}
+
+	public int getDefinitions(){
+		return definitions;
+	}
+
+
+
+	// static report of the program run from the given initial PCs
+	public void report(int[] entries, PrintStream out){
+
+		ProgramAnalysis analysis = new ProgramAnalysis(memory, entries);
+
+		BitSet reachable = analysis.getReachable();
+		out.println(source + ": " + definitions + " positions defined, " + reachable.cardinality() + " reachable from PC "
+				+ join(entries) + ", " + errors.size() + " errors, " + warnings.size() + " warnings");
+
+		out.println("reachable: " + ranges(reachable));
+		BitSet unreachable = analysis.getUnreachable();
+		if(!unreachable.isEmpty()) out.println("dead code: " + ranges(unreachable));
+
+		for(int p=reachable.nextSetBit(0); p!=-1; p=reachable.nextSetBit(p+1)){
+			int type = memory.getType(p);
+			if(!ProgramAnalysis.isInstruction(type)) out.println("halts on " + p + ": " + MemoryDump.format(memory.getWord(p)));
+			else if(type==Instruction.READ && !isDefined(memory.getAddress(p))){
+				out.println("reads undefined position on " + p + ": " + MemoryDump.format(memory.getWord(p)));
+			}
+		}
+		BitSet writes = analysis.getSelfModifyingWrites();
+		for(int p=writes.nextSetBit(0); p!=-1; p=writes.nextSetBit(p+1)){
+			out.println("writes over reachable code on " + p + ": " + MemoryDump.format(memory.getWord(p)) + ", not analysed");
+		}
+
+		out.println();
+		out.println("blocks:");
+		for(ProgramAnalysis.Block block : analysis.getBlocks()){
+			out.println("  " + block + ": " + block.getLength() + " words, " + counts(block) + ", "
+					+ block.getRequests() + " bus requests, " + block.getCycles() + " cycles"
+					+ (block.halts() ? ", halts" : " -> " + block.getSuccessor()));
+		}
+
+		out.println();
+		out.println("loops:");
+		for(Map.Entry<Integer, List<ProgramAnalysis.Block>> loop : analysis.getLoops().entrySet()){
+			long cycles = 0, requests = 0;
+			for(ProgramAnalysis.Block block : loop.getValue()){
+				cycles += block.getCycles();
+				requests += block.getRequests();
+			}
+			out.println("  " + loop.getValue() + ": " + cycles + " cycles, " + requests + " bus requests per iteration");
+		}
+
+		out.println();
+		out.println("processors (cycles estimated alone on the bus):");
+		for(int i=0;i<analysis.getProcessors();i++){
+			ProgramAnalysis.Path path = analysis.getPath(i);
+			if(path.halts()){
+				out.println("  PC " + entries[i] + ": halts after " + path.getPrefixCycles() + " cycles through " + path.getPrefix());
+			}
+			else{
+				out.println("  PC " + entries[i] + ": loop " + path.getLoop() + " entered after " + path.getPrefixCycles()
+						+ " cycles, " + path.getLoopCycles() + " cycles per iteration");
+			}
+		}
+	}
+
+
+	private boolean isDefined(int position){
+		return position >= 0 && position < MemoryImage.SIZE && definedOn[position] != 0;
+	}
+
+
+	private static String counts(ProgramAnalysis.Block block){
+		return block.getInstructions(Instruction.READ) + " R, " + block.getInstructions(Instruction.WRITE) + " W, "
+				+ block.getInstructions(Instruction.EXECUTE) + " X, " + block.getInstructions(Instruction.JUMP) + " J";
+	}
+
+
+	private static String ranges(BitSet positions){
+
+		StringBuilder s = new StringBuilder();
+		for(int p=positions.nextSetBit(0); p!=-1; ){
+			int end = positions.nextClearBit(p) - 1;
+			s.append(s.length() == 0 ? "" : ", ").append(p == end ? Integer.toString(p) : p + "-" + end);
+			p = positions.nextSetBit(end + 1);
+		}
+		return s.length() == 0 ? "none" : s.toString();
+	}
+
+
+	private static String join(int[] values){
+
+		StringBuilder s = new StringBuilder();
+		for(int value : values) s.append(s.length() == 0 ? "" : ", ").append(value);
+		return s.toString();
+	}
+
+
+
+	public static void main(String[] args) throws IOException{
+
+		if(args.length < 1){
+			System.err.println("usage: java lsi.instruction.MemoryAssembler <memory file> [binary image] [-pc n]...");
+			System.exit(1);
+		}
+
+		String image = null;
+		int count = 0;
+		int[] pcs = new int[args.length];
+
+		for(int i=1;i<args.length;i++){
+			if(args[i].equals("-pc")) pcs[count++] = Integer.parseInt(args[++i]);
+			else image = args[i];
+		}
+
+		int[] entries = count == 0 ? new int[]{0} : new int[count];
+		System.arraycopy(pcs, 0, entries, 0, count);
+
+		MemoryAssembler assembler = new MemoryAssembler();
+		assembler.assemble(new File(args[0]));
+
+		for(String error : assembler.getErrors()) System.err.println(error);
+		for(String warning : assembler.getWarnings()) System.err.println(warning);
+
+		if(assembler.hasErrors()){
+			System.err.println(assembler.getErrors().size() + " errors, no image written");
+			System.exit(1);
+		}
+
+		if(image != null){
+			MemoryImageFile.writeBinary(assembler.getMemory(), new File(image));
+			System.out.println("binary image written to " + image);
+		}
+
+		assembler.report(entries, System.out);
+	}
+
+}
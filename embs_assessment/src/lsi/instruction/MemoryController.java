@@ -4,25 +4,52 @@ package lsi.instruction;
  * 
  * Actor represents a 16-bit word Memory and its controller.
  * 
- * Memory contents are instances of the Instruction class.
+ * Memory contents are held in a packed MemoryImage; Instruction instances are only created
+ * when a memory position has to be sent out or printed.
  * 
- * Its contents are initialised out of a text file specified as a parameter, which is parsed upon initialisation.
+ * Its contents are initialised out of a file specified as a parameter, which is loaded upon initialisation. The file
+ * can either be in the original 5-column text format (or the symbolic one, see lsi.instruction.MemoryAssembler) or a
+ * binary image (see lsi.instruction.MemoryImageFile), and is only parsed once per JVM while it is unchanged (see
+ * lsi.instruction.MemoryImageCache).
  * 
  * It receives RecordToken instances (following the lsi.instruction.Instruction format) over its input port, and reacts
- * to read or write requests accordingly.
+ * to read or write requests accordingly. When skipping idle cycles (see lsi.instruction.ClockedActor), it is only fired
+ * on the cycles in which it has a read to answer.
+ * 
+ * Upon wrapup, memory contents are dumped as selected by the "dump" parameter (see lsi.instruction.MemoryDump):
+ * 
+ * - all (default): every position, one "<position> <word>" line each
+ * - none: no dump
+ * - written: only the positions written during the run
+ * - diff: only the positions whose word differs from the initial contents, as "<position> <initial> -> <final>"
+ * - binary: a binary snapshot (see lsi.instruction.MemoryImageFile), which can be loaded back as a memory file
+ * 
+ * Text dumps go to the standard output, or to the "dump file" if set, through a buffered NIO channel. Binary
+ * snapshots always go to the "dump file". Only the "written" mode keeps track of written positions, the others do 
+ * not add any work to WRITE requests.
+ * 
+ * Memory contents can be captured at any point with snapshot() and brought back with restore(), e.g. to fork several
+ * continuations of a run from a warmed-up state. Pages written since the previous snapshot are tracked by the
+ * MemoryImage, so a snapshot only holds the pages written since the previous one as new data, and neither taking
+ * nor restoring one copies any word (see lsi.instruction.MemorySnapshot). A read received but not yet answered is
+ * not part of the memory contents: snapshots are best taken on cycles with no pending read (see hasPendingRead()).
+ * 
+ * Checkpoints (see lsi.instruction.CheckpointManager) hold the pending read and the pages written since
+ * initialisation only, the rest being loaded from the memory file again, which must thus be the same upon restore.
  * 
- *  * 
  */
 
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.StringTokenizer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
 
-import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
-import ptolemy.data.IntToken;
 import ptolemy.data.RecordToken;
 import ptolemy.data.expr.StringParameter;
 import ptolemy.kernel.CompositeEntity;
@@ -30,13 +57,22 @@ import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 
 @SuppressWarnings("serial")
-public class MemoryController extends TypedAtomicActor {
+public class MemoryController extends ClockedActor {
 
 
-	protected TypedIOPort input, output, clk;
-	protected Instruction[] memory;
+	protected TypedIOPort input, output;
+	protected MemoryImage memory;
+	protected MemoryImage initial; // contents upon initialisation, frozen
+	protected BitSet written; // positions written during the run, only tracked for the "written" dump
 	int readAddress;
 	StringParameter memoryFile;
+	StringParameter dump, dumpFile;
+
+	public static final String DUMP_ALL = "all";
+	public static final String DUMP_NONE = "none";
+	public static final String DUMP_WRITTEN = "written";
+	public static final String DUMP_DIFF = "diff";
+	public static final String DUMP_BINARY = "binary";
 
 	public MemoryController(CompositeEntity container, String name)
 			throws NameDuplicationException, IllegalActionException  {
@@ -46,8 +82,6 @@ public class MemoryController extends TypedAtomicActor {
 		input = new TypedIOPort(this, "input", true, false);
 		output = new TypedIOPort(this, "output", false, true);
 
-		clk = new TypedIOPort(this, "clk", true, false);
-
 
 		input.setTypeEquals(Instruction.getTokenType());
 		output.setTypeEquals(Instruction.getTokenType());
@@ -55,18 +89,30 @@ public class MemoryController extends TypedAtomicActor {
 		memoryFile = new StringParameter(this, "memory file");
 		memoryFile.setExpression("test");
 
+		dump = new StringParameter(this, "dump"); // contents printed upon wrapup
+		dump.setExpression(DUMP_ALL);
+		dump.addChoice(DUMP_ALL);
+		dump.addChoice(DUMP_NONE);
+		dump.addChoice(DUMP_WRITTEN);
+		dump.addChoice(DUMP_DIFF);
+		dump.addChoice(DUMP_BINARY);
+
+		dumpFile = new StringParameter(this, "dump file"); // empty: standard output
+		dumpFile.setExpression("");
+
 
 	}
 
 	@Override
 	public void initialize() throws IllegalActionException{
 
+		super.initialize();
 		readAddress = -1;
-		memory = new Instruction[65536];
-		for(int i=0;i<memory.length;i++){
-
-			memory[i]= new Instruction(-1, 0, -1, -1); 						// data: 0
-
+		if(memory==null){
+			memory = new MemoryImage(); // allocated once, reused across runs
+		}
+		else{
+			memory.clear(); // every position back to data: 0
 		}
 
 
@@ -75,28 +121,36 @@ public class MemoryController extends TypedAtomicActor {
 		}
 		else{
 			try{
-				FileReader f = new FileReader(memoryFile.stringValue());
-				BufferedReader r = new BufferedReader(f);
-				String line;
-				while ((line = r.readLine()) != null) {
-					StringTokenizer st = new StringTokenizer(line);
-					int storage = Integer.parseInt(st.nextToken()); 
-					int type = Integer.parseInt(st.nextToken()); 
-					int data = Integer.parseInt(st.nextToken()); 
-					int address = Integer.parseInt(st.nextToken()); 
-					int time = Integer.parseInt(st.nextToken()); 
-
-					memory[storage] = new Instruction(type, data, address, time);
-				}
-				
-				r.close();
+				// shares the pages of the image cached for this file, only the pages written during this run get copied
+				memory.copyFrom(MemoryImageCache.get(new File(memoryFile.stringValue())));
 			}
-			catch(IOException e){
-				System.out.println("Reading from file failed: " + e);
+			catch(IOException e){ // malformed lines are reported with their number, see lsi.instruction.MemoryAssembler
+				throw new IllegalActionException(this, e, "Reading memory file failed");
 			}
 
 		}
 
+		// page references only, the pages themselves are copied by memory once written
+		initial = new MemoryImage(memory);
+		initial.freeze();
+
+		String mode = dump.stringValue();
+		if(!mode.equals(DUMP_ALL) && !mode.equals(DUMP_NONE) && !mode.equals(DUMP_WRITTEN)
+				&& !mode.equals(DUMP_DIFF) && !mode.equals(DUMP_BINARY)){
+			throw new IllegalActionException(this, "Unknown dump mode: " + mode);
+		}
+		if(mode.equals(DUMP_BINARY) && dumpFile.stringValue().trim().isEmpty()){
+			throw new IllegalActionException(this, "A binary dump needs a dump file");
+		}
+
+		if(mode.equals(DUMP_WRITTEN)){
+			if(written==null) written = new BitSet(memory.size());
+			else written.clear();
+		}
+		else written = null;
+
+		if(restoreState() && readAddress!=-1) requestTick(1);
+
 	}
 
 
@@ -104,13 +158,11 @@ public class MemoryController extends TypedAtomicActor {
 	public void fire()throws IllegalActionException{
 
 
-		if(clk.hasToken(0)){
-
-			clk.get(0); // consume clock token
+		if(tick()){
 
 			if(readAddress!=-1){ //if a read has been requested, perform it
 
-				output.send(0, memory[readAddress].getToken()); // sends back the content of the requested memory address
+				output.send(0, InstructionToken.valueOf(memory.getWord(readAddress))); // sends back the content of the requested memory address
 				readAddress=-1;  // confirm that read has been performed
 			}	
 		}
@@ -119,69 +171,141 @@ public class MemoryController extends TypedAtomicActor {
 
 		else if(input.hasToken(0)){ 
 
-			RecordToken t = (RecordToken)input.get(0);
-			int type = ((IntToken)t.get("type")).intValue();
+			Instruction t = Instruction.fromToken((RecordToken)input.get(0));
+			int type = t.type;
 			if(type==Instruction.READ){  // set address to be read and sent back on the next clock cycle
-				readAddress = ((IntToken)t.get("address")).intValue();
+				readAddress = t.address;
 				assert readAddress != -1;
 			}
 			else if(type==Instruction.WRITE){ // write to memory immediately
-				int address = ((IntToken)t.get("address")).intValue();
+				int address = t.address;
 				assert address != -1;
-				int data = ((IntToken)t.get("data")).intValue();
+				int data = t.data;
 				assert data != -1;
 
-				memory[address] = new Instruction(-1,data,-1,-1);  // write to memory
+				memory.write(address, data);  // write to memory
+				if(written!=null) written.set(address);
 			}
 
 		}		
 
+		if(readAddress!=-1) requestTick(1); // idle cycles can be skipped until a read is pending
+
 	}
 
-	@Override
-	public void wrapup(){
+	public void saveState(DataOutputStream out) throws IOException{
+
+		super.saveState(out);
+
+		out.writeUTF(getMemoryFileName());
+		out.writeInt(readAddress);
+		memory.saveChanges(out, initial);
+
+		out.writeBoolean(written!=null);
+		if(written!=null) Checkpoint.writeLongs(out, written.toLongArray());
+	}
+
+
+	public void loadState(DataInputStream in) throws IOException{
 
-		for(int i=0;i<memory.length;i++){
-			System.out.println(i+" "+memory[i]);
+		super.loadState(in);
+
+		String file = in.readUTF();
+		if(!file.equals(getMemoryFileName())) throw new IOException("saved with memory file " + file);
+		readAddress = in.readInt();
+		memory.loadChanges(in, initial);
+
+		if(in.readBoolean()){
+			int length = in.readInt();
+			long[] words = new long[length];
+			for(int i=0;i<length;i++) words[i] = in.readLong();
+			if(written!=null) written.or(BitSet.valueOf(words)); // only kept in the "written" dump mode
 		}
 	}
 
 
+	private String getMemoryFileName() throws IOException{
+		try{
+			return memoryFile.stringValue();
+		}
+		catch(IllegalActionException e){
+			throw new IOException(e.getMessage());
+		}
+	}
 
 
+	// captures the memory contents, see lsi.instruction.MemorySnapshot
+	public MemorySnapshot snapshot(){
+		return memory.snapshot();
+	}
 
-	public void createTestProgram(){
+	// brings the memory contents back to a snapshot, cancelling any pending read
+	public void restore(MemorySnapshot snapshot){
+		memory.restore(snapshot);
+		readAddress = -1;
+	}
 
-		memory[0] = new Instruction(Instruction.READ, 41260, 10, -1);  		//READ 10
-		memory[1] = new Instruction(Instruction.READ, 41204, 11, -1);  		//READ 11
-		memory[2] = new Instruction(Instruction.EXECUTE, 8240, -1, 1);  	//EXECUTE 1
-		memory[3] = new Instruction(Instruction.WRITE, 4096, 21, -1);  		//WRITE  on 21
-		memory[4] = new Instruction(Instruction.READ, 41218, 12, -1);  		//READ 12
-		memory[5] = new Instruction(Instruction.WRITE, 4122, 22, -1);  		//WRITE  on 22
-		memory[6] = new Instruction(Instruction.JUMP, 61444, 100, -1);  		//JUMP to 100
+	public boolean hasPendingRead(){
+		return readAddress != -1;
+	}
 
+	// pages written since the last snapshot
+	public int getDirtyPageCount(){
+		return memory.getDirtyPageCount();
+	}
 
-		memory[10] = new Instruction(-1, 910, -1, -1); 						// data: 910
-		memory[11] = new Instruction(-1, 911, -1, -1); 						// data: 911
-		memory[12] = new Instruction(-1, 912, -1, -1); 						// data: 912
 
+	@Override
+	public void wrapup() throws IllegalActionException{
 
+		super.wrapup();
+		if(initial==null) return; // initialisation did not complete
 
-		memory[100] = new Instruction(Instruction.READ, 44011, 110, -1);  		//READ 110
-		memory[101] = new Instruction(Instruction.READ, 44012, 111, -1);  		//READ 111
-		memory[102] = new Instruction(Instruction.EXECUTE, 8844, -1, 1); 	 	//EXECUTE 1
-		memory[103] = new Instruction(Instruction.WRITE, 5189, 23, -1);  	//WRITE  on 23
-		memory[104] = new Instruction(Instruction.READ, 44011, 112, -1);  		//READ 112
-		memory[105] = new Instruction(Instruction.WRITE, 5189, 24, -1);  	//WRITE  on 24
-		memory[106] = new Instruction(Instruction.EXECUTE, 8333, -1, 1000);  	//EXECUTE 1000
-		memory[107] = new Instruction(Instruction.JUMP, 61444, 0,-1);  		//JUMP to 0
+		String mode = dump.stringValue();
+		String file = dumpFile.stringValue().trim();
+		if(mode.equals(DUMP_NONE)) return;
 
-		memory[110] = new Instruction(-1, 1910, -1, -1); 						// data: 1910
-		memory[111] = new Instruction(-1, 1911, -1, -1); 						// data: 1911
-		memory[112] = new Instruction(-1, 1912, -1, -1); 						// data: 1912
+		try{
+			if(mode.equals(DUMP_BINARY)){
+				MemoryImageFile.writeBinary(memory, new File(file));
+				return;
+			}
 
+			if(file.isEmpty()){
+				MemoryDump out = new MemoryDump(Channels.newChannel(System.out));
+				dump(mode, out);
+				System.out.flush();
+			}
+			else{
+				FileChannel channel = new FileOutputStream(file).getChannel();
+				try{
+					dump(mode, new MemoryDump(channel));
+				}
+				finally{
+					channel.close();
+				}
+			}
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Memory dump failed");
+		}
+	}
+
+
+	protected void dump(String mode, MemoryDump out) throws IOException{
 
+		if(mode.equals(DUMP_WRITTEN)) out.writeSelected(memory, written);
+		else if(mode.equals(DUMP_DIFF)) out.writeDiff(initial, memory);
+		else out.writeAll(memory);
+	}
+
+
+
+
+
+	public void createTestProgram(){
 
+		TestProgram.write(memory);
 
 	}
 
@@ -0,0 +1,135 @@
+package lsi.instruction;
+
+/*
+ *
+ * Writes the contents of a MemoryImage out, as done by MemoryController upon wrapup.
+ *
+ * Text dumps hold one line per memory position, "<position> <word>", words being formatted as by
+ * Instruction.toString() (e.g. "R 10", "W 21 4096", "X 1000", "J 100", "D 0"). Lines are encoded into a reusable
+ * buffer and written to a channel in large blocks, so a full dump of 65536 positions costs a few writes instead of
+ * one println per line. Three variants are offered:
+ *
+ * - writeAll: every position
+ * - writeSelected: the positions set in a BitSet only, e.g. those written during a run
+ * - writeDiff: the positions whose word differs from another image, as "<position> <initial word> -> <word>";
+ *   pages still shared by both images (see MemoryImage) are skipped without comparing their words
+ *
+ * Binary snapshots are written by MemoryImageFile.writeBinary.
+ *
+ * Only depends on Ptolemy-free classes, lsi.instruction.SystemSimulator uses it for its memory dump as well.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.BitSet;
+
+public class MemoryDump {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final StringBuilder line = new StringBuilder(64);
+	private long lines;
+
+
+
+	public MemoryDump(WritableByteChannel channel){
+		this.channel = channel;
+	}
+
+
+
+	public void writeAll(MemoryImage memory) throws IOException{
+
+		for(int i=0;i<memory.size();i++) writeLine(i, memory.getWord(i));
+		flush();
+	}
+
+
+	public void writeSelected(MemoryImage memory, BitSet positions) throws IOException{
+
+		for(int i=positions.nextSetBit(0); i!=-1 && i<memory.size(); i=positions.nextSetBit(i+1)){
+			writeLine(i, memory.getWord(i));
+		}
+		flush();
+	}
+
+
+	public void writeDiff(MemoryImage initial, MemoryImage memory) throws IOException{
+
+		for(int page=0;page<MemoryImage.PAGES;page++){
+
+			long[] before = initial.pages[page];
+			long[] after = memory.pages[page];
+			if(before == after) continue; // shared page, never written since the copy
+
+			for(int i=0;i<MemoryImage.PAGE_SIZE;i++){
+				if(before[i] != after[i]){
+					line.setLength(0);
+					line.append(page * MemoryImage.PAGE_SIZE + i).append(' ');
+					format(line, before[i]).append(" -> ");
+					format(line, after[i]).append('\n');
+					append(line);
+				}
+			}
+		}
+		flush();
+	}
+
+
+	// number of lines written so far
+	public long getLines(){
+		return lines;
+	}
+
+
+
+	private void writeLine(int position, long word) throws IOException{
+
+		line.setLength(0);
+		line.append(position).append(' ');
+		format(line, word).append('\n');
+		append(line);
+	}
+
+
+	// lines only hold ASCII characters, encoded one byte per char
+	private void append(CharSequence text) throws IOException{
+
+		if(buffer.remaining() < text.length()) flush();
+		for(int i=0;i<text.length();i++) buffer.put((byte)text.charAt(i));
+		lines++;
+	}
+
+
+	// writes the buffered lines to the channel, which is left open
+	public void flush() throws IOException{
+
+		buffer.flip();
+		while(buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+
+
+	// same format as Instruction.toString(), which cannot be used without Ptolemy on the class path
+	public static String format(long word){
+		return format(new StringBuilder(16), word).toString();
+	}
+
+
+	public static StringBuilder format(StringBuilder out, long word){
+
+		int type = MemoryImage.typeOf(word);
+
+		if(type==Instruction.EXECUTE) return out.append("X ").append(MemoryImage.timeOf(word));
+		else if(type==Instruction.READ) return out.append("R ").append(MemoryImage.addressOf(word));
+		else if(type==Instruction.WRITE) return out.append("W ").append(MemoryImage.addressOf(word)).append(' ').append(MemoryImage.dataOf(word));
+		else if(type==Instruction.JUMP) return out.append("J ").append(MemoryImage.addressOf(word));
+		else return out.append("D ").append(MemoryImage.dataOf(word));
+	}
+
+}
@@ -0,0 +1,293 @@
+package lsi.instruction;
+
+/*
+ *
+ * Class represents the contents of a 16-bit word memory as packed primitive arrays.
+ *
+ * Each memory position holds the four fields of an lsi.instruction.Instruction (type, data, address, time)
+ * bit-packed into one long, so reads and writes never create objects. Instruction instances are only
+ * produced on demand, as views of a given position.
+ *
+ * Layout of each packed word (fields are two's complement, so -1 is preserved):
+ *
+ * - bits 60-63: type    (4 bits)
+ * - bits 40-59: data    (20 bits)
+ * - bits 20-39: address (20 bits)
+ * - bits  0-19: time    (20 bits)
+ *
+ * Words are stored in pages of PAGE_SIZE positions. Pages can be shared between images: copying an image
+ * (copy constructor or copyFrom) only shares page references, and a shared page is copied the first time
+ * either side writes to it. An image can be frozen, after which it rejects writes and can be shared by
+ * any number of images and threads without ever being copied itself (see lsi.instruction.MemoryImageCache).
+ * Copying an image that is not frozen marks its own pages as shared, which writes to it: such an image must be
+ * confined to the thread copying it, and only frozen images may be copied from several threads.
+ *
+ * Pages written since the last snapshot are tracked as dirty. snapshot() captures the image in an
+ * lsi.instruction.MemorySnapshot by sharing its pages, like a copy, and records the pages that were dirty, so
+ * successive snapshots only differ by the pages written in between, and no page is copied until written again.
+ * restore() brings the image back to a snapshot, after which it evolves exactly as it did from that point.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class MemoryImage {
+
+	public static final int SIZE = 65536;
+	public static final int PAGE_BITS = 8;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	public static final int PAGES = SIZE / PAGE_SIZE;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private static final int TYPE_SHIFT = 60;
+	private static final int DATA_SHIFT = 40;
+	private static final int ADDRESS_SHIFT = 20;
+	private static final int TIME_SHIFT = 0;
+
+	private static final int TYPE_BITS = 4;
+	private static final int FIELD_BITS = 20;
+	private static final long FIELD_MASK = (1L << FIELD_BITS) - 1;
+	private static final long TYPE_MASK = (1L << TYPE_BITS) - 1;
+
+	public static final long EMPTY_WORD = pack(Instruction.DATA, 0, -1, -1); // data: 0
+
+	private static final long[] EMPTY_PAGE = new long[PAGE_SIZE]; // never written, always shared
+	static{
+		Arrays.fill(EMPTY_PAGE, EMPTY_WORD);
+	}
+
+	protected final long[][] pages;
+	protected final boolean[] shared; // page is referenced by another image, copy before writing
+	protected boolean frozen;
+
+	protected final long[] dirty = new long[(PAGES + 63) >>> 6]; // one bit per page written since the last snapshot
+
+
+
+	public MemoryImage(){
+
+		pages = new long[PAGES][];
+		shared = new boolean[PAGES];
+		clear();
+	}
+
+
+	public MemoryImage(MemoryImage source){
+
+		pages = new long[PAGES][];
+		shared = new boolean[PAGES];
+		copyFrom(source);
+	}
+
+
+	public void clear(){
+
+		checkNotFrozen();
+		Arrays.fill(pages, EMPTY_PAGE);
+		Arrays.fill(shared, true);
+		Arrays.fill(dirty, -1L); // all contents replaced
+	}
+
+
+	// source: frozen, or confined to the calling thread, as its pages get marked shared
+	public void copyFrom(MemoryImage source){
+
+		checkNotFrozen();
+		System.arraycopy(source.pages, 0, pages, 0, PAGES);
+		Arrays.fill(shared, true);
+		Arrays.fill(dirty, -1L); // all contents replaced
+		if(!source.frozen) Arrays.fill(source.shared, true); // the source must not write through the pages it handed out
+	}
+
+
+	public void freeze(){
+		frozen = true;
+	}
+
+	public boolean isFrozen(){
+		return frozen;
+	}
+
+	private void checkNotFrozen(){
+		if(frozen) throw new UnsupportedOperationException("memory image is frozen");
+	}
+
+
+	// returns the page holding a position, made private to this image so it can be written
+	protected long[] writablePage(int page){
+
+		checkNotFrozen();
+		dirty[page >>> 6] |= 1L << page;
+		if(shared[page]){
+			pages[page] = pages[page].clone();
+			shared[page] = false;
+		}
+		return pages[page];
+	}
+
+
+
+	//
+	// SNAPSHOTS
+	//
+
+	// captures the current contents, the pages written since the previous snapshot are recorded as changed
+	public MemorySnapshot snapshot(){
+
+		MemorySnapshot snapshot = new MemorySnapshot(pages, dirty);
+		if(!frozen) Arrays.fill(shared, true); // pages now belong to the snapshot as well
+		Arrays.fill(dirty, 0);
+		return snapshot;
+	}
+
+
+	// brings the contents back to a snapshot, which is left unchanged
+	public void restore(MemorySnapshot snapshot){
+
+		checkNotFrozen();
+		System.arraycopy(snapshot.pages, 0, pages, 0, PAGES);
+		Arrays.fill(shared, true);
+		Arrays.fill(dirty, 0); // identical to the snapshot
+	}
+
+
+	public boolean isDirty(int page){
+		return (dirty[page >>> 6] & (1L << page)) != 0;
+	}
+
+	public int getDirtyPageCount(){
+		int count = 0;
+		for(long bits : dirty) count += Long.bitCount(bits);
+		return count;
+	}
+
+
+	// writes the pages not shared with base, i.e. those written since this image was copied from it (see Checkpoint)
+	public void saveChanges(DataOutputStream out, MemoryImage base) throws IOException{
+
+		int count = 0;
+		for(int page=0;page<PAGES;page++) if(pages[page] != base.pages[page]) count++;
+
+		out.writeInt(count);
+		for(int page=0;page<PAGES;page++){
+			if(pages[page] == base.pages[page]) continue;
+			out.writeInt(page);
+			for(long word : pages[page]) out.writeLong(word);
+		}
+	}
+
+
+	// brings the contents back to those saved by saveChanges() against the same base
+	public void loadChanges(DataInputStream in, MemoryImage base) throws IOException{
+
+		copyFrom(base);
+
+		int count = in.readInt();
+		for(int i=0;i<count;i++){
+			int page = in.readInt();
+			if(page < 0 || page >= PAGES) throw new IOException("invalid memory page " + page);
+			long[] words = writablePage(page);
+			for(int w=0;w<PAGE_SIZE;w++) words[w] = in.readLong();
+		}
+	}
+
+
+
+	//
+	// PACKING
+	//
+
+	public static long pack(int type, int data, int address, int time){
+
+		checkRange("type", type, TYPE_BITS);
+		checkRange("data", data, FIELD_BITS);
+		checkRange("address", address, FIELD_BITS);
+		checkRange("time", time, FIELD_BITS);
+
+		return ((type & TYPE_MASK) << TYPE_SHIFT)
+				| ((data & FIELD_MASK) << DATA_SHIFT)
+				| ((address & FIELD_MASK) << ADDRESS_SHIFT)
+				| ((time & FIELD_MASK) << TIME_SHIFT);
+	}
+
+	public static int typeOf(long word){
+		return (int)(word >> TYPE_SHIFT); // arithmetic shift keeps the sign of the top field
+	}
+
+	public static int dataOf(long word){
+		return field(word, DATA_SHIFT);
+	}
+
+	public static int addressOf(long word){
+		return field(word, ADDRESS_SHIFT);
+	}
+
+	public static int timeOf(long word){
+		return field(word, TIME_SHIFT);
+	}
+
+	private static int field(long word, int shift){
+		return (int)((word << (64 - shift - FIELD_BITS)) >> (64 - FIELD_BITS)); // sign-extends the 20-bit field
+	}
+
+	private static void checkRange(String name, int value, int bits){
+
+		int unused = 32 - bits;
+		if(((value << unused) >> unused) != value){
+			throw new IllegalArgumentException(name + " value " + value + " does not fit in " + bits + " bits");
+		}
+	}
+
+
+
+	//
+	// ACCESS
+	//
+
+	public int size(){
+		return SIZE;
+	}
+
+	public long getWord(int position){
+		return pages[position >>> PAGE_BITS][position & PAGE_MASK];
+	}
+
+	public void setWord(int position, long word){
+		if(position < 0 || position >= SIZE) throw new ArrayIndexOutOfBoundsException(position);
+		writablePage(position >>> PAGE_BITS)[position & PAGE_MASK] = word;
+	}
+
+	public void set(int position, int type, int data, int address, int time){
+		setWord(position, pack(type, data, address, time));
+	}
+
+	public void write(int position, int data){
+		setWord(position, pack(Instruction.DATA, data, -1, -1)); // a WRITE always stores a data word
+	}
+
+	public int getType(int position){
+		return typeOf(getWord(position));
+	}
+
+	public int getData(int position){
+		return dataOf(getWord(position));
+	}
+
+	public int getAddress(int position){
+		return addressOf(getWord(position));
+	}
+
+	public int getTime(int position){
+		return timeOf(getWord(position));
+	}
+
+	public Instruction getInstruction(int position){
+
+		long word = getWord(position);
+		return new Instruction(typeOf(word), dataOf(word), addressOf(word), timeOf(word));
+	}
+
+}
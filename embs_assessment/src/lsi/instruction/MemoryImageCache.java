@@ -0,0 +1,78 @@
+package lsi.instruction;
+
+/*
+ *
+ * Process-wide cache of loaded memory files.
+ *
+ * Each file is loaded (text or binary, see lsi.instruction.MemoryImageFile) at most once per JVM for as long as it
+ * stays unchanged on disk. Entries are keyed by canonical path and validated against the file's last-modified time
+ * and size, so editing a memory file between runs is picked up on the next initialisation.
+ *
+ * Cached images are frozen: callers never write to them, they start their own memory from a copy (copy constructor or
+ * MemoryImage.copyFrom), which shares the cached pages and only copies those it writes to. WRITEs performed during one
+ * run therefore never leak into other controllers or later runs.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MemoryImageCache {
+
+	private static final ConcurrentHashMap<String, Entry> images = new ConcurrentHashMap<String, Entry>();
+
+
+
+	private MemoryImageCache(){
+	}
+
+
+	public static MemoryImage get(File file) throws IOException{
+
+		File canonical = file.getCanonicalFile();
+		String key = canonical.getPath();
+		long modified = canonical.lastModified();
+		long length = canonical.length();
+
+		Entry entry = images.get(key);
+		if(entry == null || entry.modified != modified || entry.length != length){
+
+			// concurrent misses on the same file may both load it, the last one loaded wins
+			MemoryImage image = new MemoryImage();
+			MemoryImageFile.load(canonical, image);
+			image.freeze();
+
+			entry = new Entry(modified, length, image);
+			images.put(key, entry);
+		}
+
+		return entry.image;
+	}
+
+
+	public static void invalidate(File file) throws IOException{
+		images.remove(file.getCanonicalPath());
+	}
+
+
+	public static void clear(){
+		images.clear();
+	}
+
+
+
+	private static class Entry{
+
+		final long modified;
+		final long length;
+		final MemoryImage image;
+
+		Entry(long modified, long length, MemoryImage image){
+			this.modified = modified;
+			this.length = length;
+			this.image = image;
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package lsi.instruction;
+
+/*
+ *
+ * Reads and writes MemoryImage contents from/to disk.
+ *
+ * Two formats are supported:
+ *
+ * - text: one memory position per line, five whitespace-separated columns (storage address, type, data, address, time),
+ *   as used by the original memory.txt files, or the symbolic form of Instruction.toString(). Lines are validated by
+ *   lsi.instruction.MemoryAssembler, and a malformed one fails the load with its line number and the reason.
+ * - binary: a 12-byte big-endian header (magic "LSIM", format version, number of words N) followed by N packed words,
+ *   one long per memory position starting at position 0, in the MemoryImage layout. Binary images are read through a
+ *   read-only memory map and bulk-copied into the destination image, with no per-line parsing.
+ *
+ * The format of a file is detected from its first four bytes, so a model can point its memory file parameter at
+ * either kind of file.
+ *
+ * Can also be run from the command line to convert a text memory file into a binary image:
+ *
+ *     java lsi.instruction.MemoryImageFile memory.txt memory.img
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+public class MemoryImageFile {
+
+	public static final int MAGIC = 0x4C53494D; // "LSIM"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 12;
+
+
+
+	private MemoryImageFile(){
+	}
+
+
+	public static void load(File file, MemoryImage memory) throws IOException{
+
+		if(isBinary(file)) readBinary(file, memory);
+		else readText(file, memory);
+	}
+
+
+	public static boolean isBinary(File file) throws IOException{
+
+		FileInputStream in = new FileInputStream(file);
+		try{
+			byte[] head = new byte[4];
+			int n = 0;
+			while(n < head.length){
+				int r = in.read(head, n, head.length - n);
+				if(r < 0) return false; // shorter than the magic number, cannot be a binary image
+				n += r;
+			}
+			return ByteBuffer.wrap(head).getInt() == MAGIC;
+		}
+		finally{
+			in.close();
+		}
+	}
+
+
+
+	//
+	// TEXT FORMAT
+	//
+
+	public static void readText(File file, MemoryImage memory) throws IOException{
+
+		MemoryAssembler assembler = new MemoryAssembler(memory);
+		assembler.assemble(file);
+
+		List<String> errors = assembler.getErrors();
+		if(!errors.isEmpty()){
+			throw new IOException(errors.get(0) + (errors.size() > 1 ? " (" + (errors.size() - 1) + " more errors)" : ""));
+		}
+	}
+
+
+
+	//
+	// BINARY FORMAT
+	//
+
+	public static void readBinary(File file, MemoryImage memory) throws IOException{
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if(map.remaining() < HEADER_SIZE || map.getInt() != MAGIC){
+				throw new IOException(file + " is not a binary memory image");
+			}
+			int version = map.getInt();
+			if(version != VERSION){
+				throw new IOException(file + ": unsupported memory image version " + version);
+			}
+			int length = map.getInt();
+			if(length < 0 || length > memory.size() || map.remaining() < length * 8L){
+				throw new IOException(file + ": corrupt memory image, " + length + " words declared");
+			}
+
+			LongBuffer words = map.asLongBuffer();
+			for(int page=0; page*MemoryImage.PAGE_SIZE < length; page++){ // bulk copy, positions beyond length keep their current value
+				int n = Math.min(MemoryImage.PAGE_SIZE, length - page*MemoryImage.PAGE_SIZE);
+				words.get(memory.writablePage(page), 0, n);
+			}
+		}
+		finally{
+			raf.close();
+		}
+	}
+
+
+	public static void writeBinary(MemoryImage memory, File file) throws IOException{
+
+		// trailing empty positions are not stored, they are restored by MemoryImage.clear()
+		int length = memory.size();
+		while(length > 0 && memory.getWord(length - 1) == MemoryImage.EMPTY_WORD) length--;
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length * 8);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(length);
+		LongBuffer words = buffer.asLongBuffer();
+		for(int page=0; page*MemoryImage.PAGE_SIZE < length; page++){
+			int n = Math.min(MemoryImage.PAGE_SIZE, length - page*MemoryImage.PAGE_SIZE);
+			words.put(memory.pages[page], 0, n);
+		}
+		buffer.rewind();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while(buffer.hasRemaining()) channel.write(buffer);
+		}
+		finally{
+			raf.close();
+		}
+	}
+
+
+
+	public static void main(String[] args) throws IOException{
+
+		if(args.length != 2){
+			System.err.println("usage: java lsi.instruction.MemoryImageFile <text memory file> <binary image>");
+			System.exit(1);
+		}
+
+		MemoryImage memory = new MemoryImage();
+		readText(new File(args[0]), memory);
+		writeBinary(memory, new File(args[1]));
+	}
+
+}
@@ -0,0 +1,69 @@
+package lsi.instruction;
+
+/*
+ *
+ * Immutable capture of the contents of a MemoryImage, taken by MemoryImage.snapshot() and restored by
+ * MemoryImage.restore().
+ *
+ * A snapshot shares the pages of the image it was taken from (which copies them before writing them again), so
+ * taking one costs a copy of the page table, whatever the size of the memory. It also records which pages were
+ * written since the previous snapshot of the same image (all of them for the first one, or after the image was
+ * cleared or copied into), i.e. the pages it does not share with that previous snapshot: successive snapshots of a
+ * running simulation only hold the pages written in between as new data.
+ *
+ * Any number of images can be restored from the same snapshot, e.g. to fork what-if continuations of a simulation
+ * from a warmed-up state, and snapshots can be shared between threads.
+ *
+ */
+
+public class MemorySnapshot {
+
+	final long[][] pages; // never written, pages are shared with images
+	private final int[] changedPages;
+
+
+
+	MemorySnapshot(long[][] pages, long[] dirty){
+
+		this.pages = pages.clone();
+
+		int count = 0;
+		for(long bits : dirty) count += Long.bitCount(bits);
+		changedPages = new int[count];
+
+		int n = 0;
+		for(int page=0; page<MemoryImage.PAGES; page++){
+			if((dirty[page >>> 6] & (1L << page)) != 0) changedPages[n++] = page;
+		}
+	}
+
+
+	// pages written since the previous snapshot, in increasing order
+	public int[] getChangedPages(){
+		return changedPages.clone();
+	}
+
+	public int getChangedPageCount(){
+		return changedPages.length;
+	}
+
+	// words held in new pages, as opposed to pages shared with the previous snapshot
+	public int getChangedWords(){
+		return changedPages.length * MemoryImage.PAGE_SIZE;
+	}
+
+
+	public long getWord(int position){
+		return pages[position >>> MemoryImage.PAGE_BITS][position & (MemoryImage.PAGE_SIZE - 1)];
+	}
+
+
+	// a new image holding the contents of this snapshot
+	public MemoryImage toImage(){
+
+		MemoryImage image = new MemoryImage();
+		image.restore(this);
+		return image;
+	}
+
+}
@@ -0,0 +1,709 @@
+package lsi.instruction;
+
+/*
+ *
+ * Actor represents a private cache placed between an lsi.instruction.InstructionProcessor and the bus.
+ *
+ * Towards the processor, connected to the input and output ports, the cache behaves as the bus does: it accepts a
+ * READ or WRITE request, sends back a GRANT on the next clock cycle and, for a READ, the data on a later one. While a
+ * request is being served, further requests are discarded and the processor retries them on every cycle, as it does
+ * with the bus. Towards the bus, connected to the toBus and fromBus ports, it behaves as a master: it keeps issuing
+ * its request on every clock cycle until granted, then waits for the data of a READ.
+ *
+ * Instructions and data share the same cache. Its layout is set by the "lines", "associativity" and "line size"
+ * parameters: lines are grouped in sets of "associativity" lines (1 for a direct-mapped cache, "lines" for a fully
+ * associative one), and line l of memory (address / "line size") can only be held by set l % sets. Within a set, the
+ * line to be replaced is an invalid one if any, or else the least recently used one (LRU), the oldest one (FIFO) or a
+ * random one, as selected by the "replacement" parameter.
+ *
+ * A READ miss fills the whole line with one bus READ per word, starting with the requested word, which is forwarded to
+ * the processor as soon as it arrives. WRITEs are handled as selected by the "write policy" parameter:
+ *
+ * - write-through: a hit updates the line, and every WRITE is forwarded to the bus (no allocation on a miss)
+ * - write-back: a miss allocates the line, and the written words are marked dirty and only written to the bus
+ *   when their line is replaced
+ *
+ * Words are kept bit-packed as in lsi.instruction.MemoryImage. Only dirty words are written back, as a WRITE always
+ * stores a DATA word and would otherwise corrupt the instructions held by the same line.
+ *
+ * Unless the "coherence" parameter is set, caches are not kept coherent with each other: with write-back, WRITEs to
+ * shared data are only seen by other processors once written back. Otherwise, the snoop and snoop response ports are
+ * connected to the bus (see lsi.instruction.SingleSharedMemoryBus), and every line is in one of the states of the
+ * selected protocol:
+ *
+ * - MSI: a READ miss fills the line as Shared. A WRITE to a Shared or missing line is sent on the bus, invalidating
+ *   all other copies, and leaves the line Modified, so further WRITEs to it stay local
+ * - MESI: as MSI, but a READ miss fills the line as Exclusive if no other cache holds it, and a WRITE to an
+ *   Exclusive line silently makes it Modified
+ *
+ * A snooped READ of a Modified line flushes its dirty words (the bus writes them to memory before the READ) and
+ * leaves it Shared; a snooped WRITE flushes them as well and invalidates the line. Pending WRITEs of the cache are
+ * not flushed: like a store buffer, they only become visible to other processors when they reach the bus. With
+ * write-through, there are no dirty words and a line is either valid or invalid, snooped WRITEs invalidating it.
+ *
+ * The cache counts read and write hits and misses, words written back, bus transactions issued and the bus
+ * transactions saved with respect to forwarding every request, as well as the coherence traffic: snoops received,
+ * lines invalidated, words flushed and WRITEs sent on the bus to invalidate other copies (see the getters);
+ * all are printed upon wrapup when "print statistics" is set.
+ * The debug port outputs 1 on every hit and 0 on every miss.
+ *
+ * When skipping idle cycles (see lsi.instruction.ClockedActor), the cache is only fired on the cycles in which it has
+ * something to send, and upon reception of requests, snoops or bus responses.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import ptolemy.actor.TypedIOPort;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+
+@SuppressWarnings("serial")
+public class ProcessorCache extends ClockedActor {
+
+	public static final String LRU = "LRU";
+	public static final String FIFO = "FIFO";
+	public static final String RANDOM = "random";
+
+	public static final String WRITE_THROUGH = "write-through";
+	public static final String WRITE_BACK = "write-back";
+
+	public static final String NONE = "none";
+	public static final String MSI = "MSI";
+	public static final String MESI = "MESI";
+
+	// line states under a coherence protocol
+	protected static final byte INVALID = 0;
+	protected static final byte SHARED = 1;
+	protected static final byte EXCLUSIVE = 2;
+	protected static final byte MODIFIED = 3;
+
+	private static final IntToken HIT = new IntToken(1);
+	private static final IntToken MISS = new IntToken(0);
+
+	protected TypedIOPort input, output, toBus, fromBus, debug, snoop, snoopResponse;
+	protected Parameter cacheLines, associativity, lineSize, randomSeed;
+	protected StringParameter replacement, writePolicy, coherence;
+
+	protected int lines, ways, sets, words;
+	protected boolean writeBack, lru, fifo, coherent, mesi;
+	protected Random random;
+
+	// per line: memory line held (-1 if invalid), replacement stamp and coherence state
+	protected int[] lineTags;
+	protected long[] stamps;
+	protected byte[] states;
+	protected long accesses;
+
+	// per word, indexed by line * words + offset
+	protected long[] data;
+	protected boolean[] dirty;
+
+	// processor side: tokens to be sent over the next clock cycles
+	protected RecordToken grantToken, dataToken;
+	protected int requestAddress;
+
+	// bus side: pending transactions, the one being requested and the READ awaiting its data
+	protected ArrayDeque<RecordToken> busQueue = new ArrayDeque<RecordToken>();
+	protected RecordToken busRequest;
+	protected int readAddress;
+
+	// line being filled: READs still to be answered, whether it is filled for a WRITE, and what was snooped meanwhile
+	protected int fillLine, fillPending;
+	protected boolean fillWrite, fillShared, fillInvalidated;
+
+	protected long readHits, readMisses, writeHits, writeMisses, writeBacks, requests, busTransactions;
+	protected long snoops, invalidations, flushedWords, invalidatingWrites;
+
+
+
+	public ProcessorCache(CompositeEntity container, String name)
+			throws NameDuplicationException, IllegalActionException  {
+
+		super(container, name);
+
+		input = new TypedIOPort(this, "input", true, false); // receives requests from the processor
+		output = new TypedIOPort(this, "output", false, true); // outputs grants and data to the processor
+
+		toBus = new TypedIOPort(this, "toBus", false, true); // sends requests to the bus
+		fromBus = new TypedIOPort(this, "fromBus", true, false); // receives grants and data from the bus
+
+		input.setTypeEquals(Instruction.getTokenType());
+		output.setTypeEquals(Instruction.getTokenType());
+		toBus.setTypeEquals(Instruction.getTokenType());
+		fromBus.setTypeEquals(Instruction.getTokenType());
+
+		debug = new TypedIOPort(this, "debug", false, true); // 1 on a hit, 0 on a miss
+		debug.setTypeEquals(BaseType.INT);
+
+
+		// layout
+
+		cacheLines = new Parameter(this, "lines");
+		cacheLines.setTypeEquals(BaseType.INT);
+		cacheLines.setExpression("64");
+
+		associativity = new Parameter(this, "associativity"); // lines per set, 1 for direct-mapped
+		associativity.setTypeEquals(BaseType.INT);
+		associativity.setExpression("1");
+
+		lineSize = new Parameter(this, "line size"); // in words
+		lineSize.setTypeEquals(BaseType.INT);
+		lineSize.setExpression("4");
+
+
+		// policies
+
+		replacement = new StringParameter(this, "replacement");
+		replacement.setExpression(LRU);
+		replacement.addChoice(LRU);
+		replacement.addChoice(FIFO);
+		replacement.addChoice(RANDOM);
+
+		randomSeed = new Parameter(this, "random seed");
+		randomSeed.setTypeEquals(BaseType.INT);
+		randomSeed.setExpression("0");
+
+		writePolicy = new StringParameter(this, "write policy");
+		writePolicy.setExpression(WRITE_THROUGH);
+		writePolicy.addChoice(WRITE_THROUGH);
+		writePolicy.addChoice(WRITE_BACK);
+
+		coherence = new StringParameter(this, "coherence");
+		coherence.setExpression(NONE);
+		coherence.addChoice(NONE);
+		coherence.addChoice(MSI);
+		coherence.addChoice(MESI);
+
+
+		// snooping, connected to the bus when coherence is enabled
+
+		snoop = new TypedIOPort(this, "snoop", true, false); // transactions of the other masters
+		snoopResponse = new TypedIOPort(this, "snoop response", false, true); // words to be flushed, or shared line signal
+		snoop.setTypeEquals(Instruction.getTokenType());
+		snoopResponse.setTypeEquals(Instruction.getTokenType());
+
+	}
+
+
+	public void initialize() throws IllegalActionException{
+
+		super.initialize();
+
+		lines = ((IntToken)cacheLines.getToken()).intValue();
+		ways = ((IntToken)associativity.getToken()).intValue();
+		words = ((IntToken)lineSize.getToken()).intValue();
+
+		if(lines < 1) throw new IllegalActionException(this, "lines must be positive");
+		if(ways < 1 || lines % ways != 0) throw new IllegalActionException(this, "associativity must divide the number of lines");
+		if(words < 1 || MemoryImage.SIZE % words != 0) throw new IllegalActionException(this, "line size must divide the memory size");
+		sets = lines / ways;
+
+		String policy = replacement.stringValue();
+		lru = policy.equals(LRU);
+		fifo = policy.equals(FIFO);
+		if(!lru && !fifo && !policy.equals(RANDOM)) throw new IllegalActionException(this, "Unknown replacement policy: " + policy);
+		random = new Random(((IntToken)randomSeed.getToken()).intValue());
+
+		String write = writePolicy.stringValue();
+		writeBack = write.equals(WRITE_BACK);
+		if(!writeBack && !write.equals(WRITE_THROUGH)) throw new IllegalActionException(this, "Unknown write policy: " + write);
+
+		String protocol = coherence.stringValue();
+		mesi = protocol.equals(MESI);
+		coherent = mesi || protocol.equals(MSI);
+		if(!coherent && !protocol.equals(NONE)) throw new IllegalActionException(this, "Unknown coherence protocol: " + protocol);
+
+		// all lines invalid upon initialisation
+		lineTags = new int[lines];
+		Arrays.fill(lineTags, -1);
+		stamps = new long[lines];
+		states = new byte[lines];
+		data = new long[lines * words];
+		dirty = new boolean[lines * words];
+		accesses = 0;
+
+		grantToken = null;
+		dataToken = null;
+		requestAddress = -1;
+		busQueue.clear();
+		busRequest = null;
+		readAddress = -1;
+		fillLine = -1;
+		fillPending = 0;
+
+		readHits = 0;
+		readMisses = 0;
+		writeHits = 0;
+		writeMisses = 0;
+		writeBacks = 0;
+		requests = 0;
+		busTransactions = 0;
+		snoops = 0;
+		invalidations = 0;
+		flushedWords = 0;
+		invalidatingWrites = 0;
+
+		if(restoreState() && (grantToken!=null || dataToken!=null || busRequest!=null)) requestTick(1);
+	}
+
+
+
+	public void fire() throws IllegalActionException{
+
+
+		boolean clock = tick();
+
+		if(clock){
+
+			// processor side, GRANT first then DATA on a later cycle
+			if(grantToken!=null){
+				output.send(0, grantToken);
+				grantToken=null;
+			}
+			else if(dataToken!=null){
+				output.send(0, dataToken);
+				dataToken=null;
+			}
+		}
+
+
+		// bus side
+
+		if(snoop.getWidth() > 0 && snoop.hasToken(0)) snoop((RecordToken)snoop.get(0)); // unconnected without coherence
+
+		if(fromBus.hasToken(0)){
+
+			RecordToken token = (RecordToken)fromBus.get(0);
+
+			if(busRequest!=null){ // GRANT received
+				Instruction granted = Instruction.fromToken(busRequest);
+				if(granted.type==Instruction.READ){
+					readAddress = granted.address; // wait for its DATA
+					if(Instruction.fromToken(token).time==1) fillShared = true; // another cache holds the line
+				}
+				busTransactions++;
+				busRequest=null;
+			}
+			else if(readAddress!=-1){ // DATA received
+				fill(readAddress, token);
+				readAddress=-1;
+			}
+
+			if(busRequest==null && readAddress==-1) busRequest = busQueue.poll(); // requested from the next cycle on
+		}
+		else if(clock && busRequest!=null){
+			toBus.send(0, busRequest); // request (again, potentially) until granted
+		}
+
+
+		// processor side
+
+		if(input.hasToken(0)){
+
+			RecordToken token = (RecordToken)input.get(0);
+
+			// requests received while busy are discarded, the processor retries on the next cycle
+			if(isIdle()) access(token);
+		}
+
+		if(grantToken!=null || dataToken!=null || busRequest!=null) requestTick(1); // idle cycles can be skipped until then
+
+	}
+
+
+
+	// serves a request from the processor
+	protected void access(RecordToken token) throws IllegalActionException{
+
+		Instruction request = Instruction.fromToken(token);
+		int address = request.address;
+		int line = lookup(address);
+		boolean hit = line!=-1;
+
+		requests++;
+		grantToken = token;
+
+		if(request.type==Instruction.READ){
+
+			if(hit){
+				readHits++;
+				dataToken = InstructionToken.valueOf(data[line * words + address % words]);
+			}
+			else{
+				readMisses++;
+				requestAddress = address; // forwarded to the processor when it arrives
+				fillWrite = false;
+				allocate(address, -1);
+			}
+		}
+		else if(request.type==Instruction.WRITE){
+
+			long word = MemoryImage.pack(Instruction.DATA, request.data, -1, -1); // a WRITE always stores a data word
+
+			if(hit){
+				writeHits++;
+				data[line * words + address % words] = word;
+
+				if(!writeBack) queue(token);
+				else if(coherent && states[line]==SHARED){ // other copies must be invalidated
+					queue(token);
+					invalidatingWrites++;
+					states[line] = MODIFIED;
+				}
+				else{
+					dirty[line * words + address % words] = true;
+					states[line] = MODIFIED;
+				}
+			}
+			else{
+				writeMisses++;
+
+				if(!writeBack) queue(token);
+				else{
+					fillWrite = true;
+					line = allocate(address, address); // the written word is not read from the bus
+					data[line * words + address % words] = word;
+
+					if(coherent){ // other copies must be invalidated
+						queue(token);
+						invalidatingWrites++;
+					}
+					else dirty[line * words + address % words] = true;
+				}
+			}
+		}
+
+		if(hit && lru) stamps[line] = ++accesses;
+		debug.send(0, hit ? HIT : MISS);
+
+		if(busRequest==null) busRequest = busQueue.poll();
+	}
+
+
+	// returns the line holding an address, or -1 on a miss
+	protected int lookup(int address){
+
+		int tag = address / words;
+		int first = (tag % sets) * ways;
+
+		for(int l=first;l<first+ways;l++){
+			if(lineTags[l]==tag) return l;
+		}
+		return -1;
+	}
+
+
+	// replaces a line of the address' set with the line holding the address, and queues the bus transactions to fill it
+	// (apart from the skipped address, if not -1)
+	protected int allocate(int address, int skip) throws IllegalActionException{
+
+		int tag = address / words;
+		int line = victim(tag % sets);
+
+		// write back the dirty words of the replaced line
+		for(int i=0;i<words;i++){
+			if(dirty[line * words + i]){
+				queue(InstructionToken.valueOf(Instruction.WRITE, MemoryImage.dataOf(data[line * words + i]), lineTags[line] * words + i, -1));
+				dirty[line * words + i] = false;
+				writeBacks++;
+			}
+		}
+
+		lineTags[line] = tag;
+		stamps[line] = ++accesses;
+		fillLine = line;
+		fillPending = 0;
+		fillShared = false;
+		fillInvalidated = false;
+
+		// fill from the requested word on, wrapping around
+		int base = tag * words;
+		for(int i=0;i<words;i++){
+			int a = base + (address - base + i) % words;
+			if(a!=skip){
+				queue(InstructionToken.valueOf(Instruction.READ, -1, a, -1));
+				fillPending++;
+			}
+		}
+
+		if(fillPending==0) finishFill();
+		return line;
+	}
+
+
+	// sets the state of the line once filled
+	protected void finishFill(){
+
+		if(fillInvalidated) invalidate(fillLine); // written by another master while being filled
+		else if(!writeBack || fillShared) states[fillLine] = SHARED;
+		else if(fillWrite) states[fillLine] = MODIFIED;
+		else states[fillLine] = mesi ? EXCLUSIVE : SHARED;
+	}
+
+
+	protected void invalidate(int line){
+
+		lineTags[line] = -1;
+		states[line] = INVALID;
+	}
+
+
+	// reacts to a transaction of another master, before it reaches memory
+	protected void snoop(RecordToken token) throws IllegalActionException{
+
+		snoops++;
+		if(!coherent) return;
+
+		Instruction transaction = Instruction.fromToken(token);
+		int line = lookup(transaction.address);
+		if(line==-1) return;
+
+		boolean filling = line==fillLine && fillPending>0;
+
+		if(transaction.type==Instruction.READ){
+
+			if(filling) fillShared = true;
+			else if(states[line]==MODIFIED){
+				flush(line);
+				states[line] = SHARED;
+			}
+			else if(states[line]==EXCLUSIVE) states[line] = SHARED;
+
+			snoopResponse.send(0, token); // shared line signal
+		}
+		else if(transaction.type==Instruction.WRITE){
+
+			invalidations++;
+			if(filling) fillInvalidated = true;
+			else{
+				flush(line);
+				invalidate(line);
+			}
+		}
+	}
+
+
+	// hands the dirty words of a line over to the bus, which writes them to memory before the snooped transaction
+	protected void flush(int line) throws IllegalActionException{
+
+		for(int i=0;i<words;i++){
+			if(dirty[line * words + i]){
+				snoopResponse.send(0, InstructionToken.valueOf(Instruction.WRITE, MemoryImage.dataOf(data[line * words + i]), lineTags[line] * words + i, -1));
+				dirty[line * words + i] = false;
+				flushedWords++;
+			}
+		}
+	}
+
+
+	protected int victim(int set){
+
+		int first = set * ways;
+
+		for(int l=first;l<first+ways;l++){
+			if(lineTags[l]==-1) return l;
+		}
+		if(!lru && !fifo) return first + random.nextInt(ways);
+
+		int victim = first;
+		for(int l=first+1;l<first+ways;l++){
+			if(stamps[l] < stamps[victim]) victim = l; // least recently used or oldest filled
+		}
+		return victim;
+	}
+
+
+	// stores a word read from the bus into the line being filled
+	protected void fill(int address, RecordToken token) throws IllegalActionException{
+
+		Instruction word = Instruction.fromToken(token);
+		data[fillLine * words + address % words] = MemoryImage.pack(word.type, word.data, word.address, word.time);
+
+		if(address==requestAddress){
+			dataToken = token; // critical word, forwarded to the processor on the next cycle
+			requestAddress = -1;
+		}
+
+		if(--fillPending==0) finishFill();
+	}
+
+
+	public void saveState(DataOutputStream out) throws IOException{
+
+		super.saveState(out);
+
+		// lines, with their words, as laid out by the parameters the checkpoint was taken with
+		Checkpoint.writeInts(out, lineTags);
+		Checkpoint.writeLongs(out, stamps);
+		out.write(states);
+		Checkpoint.writeLongs(out, data);
+		for(boolean word : dirty) out.writeBoolean(word);
+		out.writeLong(accesses);
+		Checkpoint.writeRandom(out, random);
+
+		writeToken(out, grantToken);
+		writeToken(out, dataToken);
+		out.writeInt(requestAddress);
+		out.writeInt(busQueue.size());
+		for(RecordToken token : busQueue) writeToken(out, token);
+		writeToken(out, busRequest);
+		out.writeInt(readAddress);
+
+		out.writeInt(fillLine);
+		out.writeInt(fillPending);
+		out.writeBoolean(fillWrite);
+		out.writeBoolean(fillShared);
+		out.writeBoolean(fillInvalidated);
+
+		Checkpoint.writeLongs(out, new long[]{readHits, readMisses, writeHits, writeMisses, writeBacks, requests,
+				busTransactions, snoops, invalidations, flushedWords, invalidatingWrites});
+	}
+
+
+	public void loadState(DataInputStream in) throws IOException{
+
+		super.loadState(in);
+
+		Checkpoint.readInts(in, lineTags);
+		Checkpoint.readLongs(in, stamps);
+		in.readFully(states);
+		Checkpoint.readLongs(in, data);
+		for(int i=0;i<dirty.length;i++) dirty[i] = in.readBoolean();
+		accesses = in.readLong();
+		random = Checkpoint.readRandom(in);
+
+		grantToken = readToken(in);
+		dataToken = readToken(in);
+		requestAddress = in.readInt();
+		busQueue.clear();
+		int queued = in.readInt();
+		for(int i=0;i<queued;i++) busQueue.add(readToken(in));
+		busRequest = readToken(in);
+		readAddress = in.readInt();
+
+		fillLine = in.readInt();
+		fillPending = in.readInt();
+		fillWrite = in.readBoolean();
+		fillShared = in.readBoolean();
+		fillInvalidated = in.readBoolean();
+
+		long[] counters = new long[11];
+		Checkpoint.readLongs(in, counters);
+		readHits = counters[0];
+		readMisses = counters[1];
+		writeHits = counters[2];
+		writeMisses = counters[3];
+		writeBacks = counters[4];
+		requests = counters[5];
+		busTransactions = counters[6];
+		snoops = counters[7];
+		invalidations = counters[8];
+		flushedWords = counters[9];
+		invalidatingWrites = counters[10];
+	}
+
+
+	protected void queue(RecordToken token){
+		busQueue.add(token);
+	}
+
+
+	protected boolean isIdle(){
+		return grantToken==null && dataToken==null && requestAddress==-1
+				&& busRequest==null && readAddress==-1 && busQueue.isEmpty();
+	}
+
+
+
+	public long getReadHits(){
+		return readHits;
+	}
+
+	public long getReadMisses(){
+		return readMisses;
+	}
+
+	public long getWriteHits(){
+		return writeHits;
+	}
+
+	public long getWriteMisses(){
+		return writeMisses;
+	}
+
+	public long getWriteBacks(){
+		return writeBacks;
+	}
+
+	public long getBusTransactions(){
+		return busTransactions;
+	}
+
+	// bus transactions saved with respect to forwarding every request, negative if line fills cost more than they save
+	public long getSavedTransactions(){
+		return requests - busTransactions;
+	}
+
+	public long getSnoops(){
+		return snoops;
+	}
+
+	public long getInvalidations(){
+		return invalidations;
+	}
+
+	public long getFlushedWords(){
+		return flushedWords;
+	}
+
+	// WRITEs sent on the bus only to invalidate other copies, which a non-coherent write-back cache would have kept local
+	public long getInvalidatingWrites(){
+		return invalidatingWrites;
+	}
+
+	public double getHitRate(){
+		return requests == 0 ? 0 : (double)(readHits + writeHits) / requests;
+	}
+
+
+	public void wrapup() throws IllegalActionException{
+
+		super.wrapup();
+		if(lineTags==null || !printing) return; // initialisation did not complete, or statistics not printed
+
+		System.out.println(getName()+": "+readHits+" read hits, "+readMisses+" read misses, "+writeHits+" write hits, "
+				+writeMisses+" write misses, "+writeBacks+" words written back");
+		System.out.println(getName()+": "+busTransactions+" bus transactions for "+requests+" requests, "
+				+getSavedTransactions()+" saved ("+Math.round(getHitRate()*1000)/10.0+"% hit rate)");
+		if(coherent){
+			System.out.println(getName()+": "+snoops+" snoops, "+invalidations+" invalidations, "+flushedWords+" words flushed, "
+					+invalidatingWrites+" invalidating writes");
+		}
+	}
+
+
+	public void pruneDependencies() {
+		super.pruneDependencies();
+		removeDependency(input, output);
+		removeDependency(input, toBus);
+		removeDependency(input, snoopResponse);
+		// requests are only sent to the bus on clock ticks, whatever is received from the bus or snooped; the bus snoops
+		// in the instant it arbitrates, so this breaks bus.input -> bus.snoop -> cache.snoop -> cache.toBus -> bus.input
+		removeDependency(snoop, toBus);
+		removeDependency(fromBus, toBus);
+	}
+
+}
@@ -0,0 +1,348 @@
+package lsi.instruction;
+
+/*
+ *
+ * Static control flow analysis of the program held by a MemoryImage, as run by InstructionProcessor masters starting
+ * from given initial PCs, without simulating it.
+ *
+ * The instruction set has no conditional branch: a processor runs straight from its PC until a JUMP, and goes on at
+ * its target. Its control flow is thus a single path, which either ends on a halting word (a DATA word, or any word
+ * of unknown type, leaves the processor in DECODE forever) or the end of memory, or enters a loop it never leaves.
+ * The analysis splits the reachable code into basic blocks, which start on an initial PC or a JUMP target and end on
+ * a JUMP, a halting word or right before the next block, and follows the path of every initial PC through them
+ * (see Path). Programs are assumed not to write over their own code, see getSelfModifyingWrites().
+ *
+ * Cycles are estimated for a processor alone on the bus, with the state machine of InstructionProcessor and the
+ * bus and memory timings of SingleSharedMemoryBus and MemoryController in blocking mode:
+ *
+ * - every instruction is fetched in FETCH_CYCLES cycles, from the request to the decode of the word received
+ * - a READ then takes READ_CYCLES more cycles, a WRITE WRITE_CYCLES and an EXECUTE max(time, 1), a JUMP none
+ *
+ * Only depends on Ptolemy-free classes of this package.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ProgramAnalysis {
+
+	public static final int FETCH_CYCLES = 4; // request, grant, memory access, word delivered and decoded
+	public static final int READ_CYCLES = 4; // same as a fetch
+	public static final int WRITE_CYCLES = 2; // request, grant
+
+	protected final MemoryImage memory;
+	protected final int[] entries;
+
+	protected final BitSet reachable = new BitSet(MemoryImage.SIZE);
+	protected final TreeMap<Integer, Block> blocks = new TreeMap<Integer, Block>(); // by start position
+	protected final Path[] paths;
+
+
+
+	public ProgramAnalysis(MemoryImage memory, int[] entries){
+
+		this.memory = memory;
+		this.entries = entries.clone();
+
+		BitSet leaders = new BitSet(MemoryImage.SIZE);
+		for(int entry : entries){
+			if(entry < 0 || entry >= MemoryImage.SIZE) throw new IllegalArgumentException("initial PC " + entry + " out of memory");
+			leaders.set(entry);
+		}
+
+		// reachable code, and block leaders: initial PCs and JUMP targets
+		ArrayList<Integer> work = new ArrayList<Integer>();
+		for(int entry : entries) work.add(entry);
+
+		while(!work.isEmpty()){
+
+			int p = work.remove(work.size() - 1);
+			while(p < MemoryImage.SIZE && !reachable.get(p)){
+
+				reachable.set(p);
+				int type = memory.getType(p);
+
+				if(type==Instruction.JUMP){
+					int target = memory.getAddress(p);
+					if(target >= 0 && target < MemoryImage.SIZE){
+						leaders.set(target);
+						work.add(target);
+					}
+					break;
+				}
+				else if(!isInstruction(type)) break; // halts
+				p++;
+			}
+		}
+
+		for(int leader=leaders.nextSetBit(0); leader!=-1; leader=leaders.nextSetBit(leader+1)){
+			blocks.put(leader, new Block(leader, leaders));
+		}
+
+		paths = new Path[entries.length];
+		for(int i=0;i<entries.length;i++) paths[i] = new Path(entries[i]);
+	}
+
+
+
+	public static boolean isInstruction(int type){
+		return type==Instruction.EXECUTE || type==Instruction.READ || type==Instruction.WRITE || type==Instruction.JUMP;
+	}
+
+
+	// cycles spent on the given word once fetched and decoded, for a processor alone on the bus
+	public static long cyclesOf(long word){
+
+		int type = MemoryImage.typeOf(word);
+
+		if(type==Instruction.READ) return FETCH_CYCLES + READ_CYCLES;
+		else if(type==Instruction.WRITE) return FETCH_CYCLES + WRITE_CYCLES;
+		else if(type==Instruction.EXECUTE) return FETCH_CYCLES + Math.max(MemoryImage.timeOf(word), 1);
+		else return FETCH_CYCLES; // JUMP, or a halting word fetched
+	}
+
+
+
+	public int[] getEntries(){
+		return entries.clone();
+	}
+
+	public BitSet getReachable(){
+		return (BitSet)reachable.clone();
+	}
+
+	public Collection<Block> getBlocks(){
+		return Collections.unmodifiableCollection(blocks.values());
+	}
+
+	public Block getBlock(int start){
+		return blocks.get(start);
+	}
+
+	// path of the processor starting from the given initial PC, in the order given upon construction
+	public Path getPath(int processor){
+		return paths[processor];
+	}
+
+	public int getProcessors(){
+		return paths.length;
+	}
+
+
+	// distinct loops, by the start of their first block; processors entering the same loop share it
+	public Map<Integer, List<Block>> getLoops(){
+
+		Map<Integer, List<Block>> loops = new TreeMap<Integer, List<Block>>();
+		for(Path path : paths){
+			if(path.halts()) continue;
+			List<Block> loop = path.getLoop();
+			int first = Integer.MAX_VALUE;
+			for(Block block : loop) first = Math.min(first, block.start);
+			if(!loops.containsKey(first)) loops.put(first, loop);
+		}
+		return loops;
+	}
+
+
+	// defined instructions no initial PC ever reaches
+	public BitSet getUnreachable(){
+
+		BitSet unreachable = new BitSet(MemoryImage.SIZE);
+		for(int p=0;p<MemoryImage.SIZE;p++){
+			if(!reachable.get(p) && isInstruction(memory.getType(p))) unreachable.set(p);
+		}
+		return unreachable;
+	}
+
+
+	// reachable WRITEs whose address holds reachable code, which the analysis assumes unchanged
+	public BitSet getSelfModifyingWrites(){
+
+		BitSet writes = new BitSet(MemoryImage.SIZE);
+		for(int p=reachable.nextSetBit(0); p!=-1; p=reachable.nextSetBit(p+1)){
+			if(memory.getType(p)==Instruction.WRITE){
+				int address = memory.getAddress(p);
+				if(address >= 0 && address < MemoryImage.SIZE && reachable.get(address)) writes.set(p);
+			}
+		}
+		return writes;
+	}
+
+
+
+	/*
+	 * Straight-line run of reachable words, from a leader to a JUMP, a halting word, the end of memory or the word
+	 * before the next leader, with its instruction counts and estimated cycles.
+	 */
+	public class Block {
+
+		protected final int start, end; // positions, both included
+		protected final int[] instructions = new int[4]; // per instruction type
+		protected final long cycles;
+		protected final int successor; // start of the next block, -1 if none
+		protected final boolean halts; // ends on a halting word or the end of memory
+
+		protected Block(int start, BitSet leaders){
+
+			this.start = start;
+
+			int p = start;
+			long c = 0;
+			int next = -1;
+			boolean halt = false;
+
+			while(true){
+
+				long word = memory.getWord(p);
+				int type = MemoryImage.typeOf(word);
+				c += cyclesOf(word);
+
+				if(type==Instruction.JUMP){
+					instructions[type]++;
+					int target = MemoryImage.addressOf(word);
+					if(target >= 0 && target < MemoryImage.SIZE) next = target;
+					else halt = true; // jumps out of memory
+					break;
+				}
+				else if(!isInstruction(type)){
+					halt = true;
+					break;
+				}
+
+				instructions[type]++;
+				if(p + 1 == MemoryImage.SIZE){
+					halt = true; // runs off the end of memory
+					break;
+				}
+				if(leaders.get(p + 1)){
+					next = p + 1;
+					break;
+				}
+				p++;
+			}
+
+			end = p;
+			cycles = c;
+			successor = next;
+			halts = halt;
+		}
+
+
+		public int getStart(){
+			return start;
+		}
+
+		public int getEnd(){
+			return end;
+		}
+
+		public int getLength(){
+			return end - start + 1;
+		}
+
+		// number of instructions of the given type (Instruction.EXECUTE, READ, WRITE or JUMP)
+		public int getInstructions(int type){
+			return instructions[type];
+		}
+
+		// bus requests issued when run once: one fetch per word, plus one per READ and WRITE
+		public int getRequests(){
+			return getLength() + instructions[Instruction.READ] + instructions[Instruction.WRITE];
+		}
+
+		public long getCycles(){
+			return cycles;
+		}
+
+		public int getSuccessor(){
+			return successor;
+		}
+
+		public boolean halts(){
+			return halts;
+		}
+
+		public String toString(){
+			return start == end ? Integer.toString(start) : start + "-" + end;
+		}
+	}
+
+
+
+	/*
+	 * Path of a processor through the blocks, from its initial PC: a prefix run once, followed either by a loop run
+	 * forever, or by nothing if it halts at the end of the prefix.
+	 */
+	public class Path {
+
+		protected final List<Block> prefix = new ArrayList<Block>();
+		protected final List<Block> loop = new ArrayList<Block>();
+
+		protected Path(int entry){
+
+			List<Block> visited = new ArrayList<Block>();
+			Map<Block, Integer> order = new HashMap<Block, Integer>();
+
+			Block block = blocks.get(entry);
+			while(block!=null && !order.containsKey(block)){
+				order.put(block, visited.size());
+				visited.add(block);
+				block = block.halts ? null : blocks.get(block.successor);
+			}
+
+			int loopStart = block==null ? visited.size() : order.get(block);
+			prefix.addAll(visited.subList(0, loopStart));
+			loop.addAll(visited.subList(loopStart, visited.size()));
+		}
+
+
+		public List<Block> getPrefix(){
+			return Collections.unmodifiableList(prefix);
+		}
+
+		// empty if the path halts
+		public List<Block> getLoop(){
+			return Collections.unmodifiableList(loop);
+		}
+
+		public boolean halts(){
+			return loop.isEmpty();
+		}
+
+		// cycles before entering the loop, or before halting
+		public long getPrefixCycles(){
+			return cyclesOf(prefix);
+		}
+
+		// cycles of one iteration of the loop, 0 if the path halts
+		public long getLoopCycles(){
+			return cyclesOf(loop);
+		}
+
+		public long getLoopRequests(){
+			long requests = 0;
+			for(Block block : loop) requests += block.getRequests();
+			return requests;
+		}
+
+		public long getLoopInstructions(int type){
+			long count = 0;
+			for(Block block : loop) count += block.instructions[type];
+			return count;
+		}
+
+		private long cyclesOf(List<Block> run){
+			long cycles = 0;
+			for(Block block : run) cycles += block.cycles;
+			return cycles;
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Set of masters requesting the bus on a given cycle, held as a bitmask (bit i set when master i is requesting).
+ * 
+ * Up to 64 masters fit in a single long, larger configurations use one long per 64 masters. Finding the next
+ * requesting master is done with Long.numberOfTrailingZeros, i.e. in constant time per 64 masters rather than by
+ * walking every master in turn.
+ * 
+ */
+
+public class RequestMask {
+
+	protected final long[] words;
+	protected final int size;
+
+	public RequestMask(int size){
+
+		this.size = size;
+		words = new long[Math.max(1, (size + 63) >>> 6)];
+	}
+
+
+	public int size(){
+		return size;
+	}
+
+	public void set(int master){
+		words[master >>> 6] |= 1L << master; // shift distance is taken modulo 64
+	}
+
+	public void clear(int master){
+		words[master >>> 6] &= ~(1L << master);
+	}
+
+	public boolean get(int master){
+		return (words[master >>> 6] & (1L << master)) != 0;
+	}
+
+	public void clear(){
+		for(int w=0; w<words.length; w++) words[w] = 0;
+	}
+
+	public boolean isEmpty(){
+
+		for(int w=0; w<words.length; w++){
+			if(words[w] != 0) return false;
+		}
+		return true;
+	}
+
+	public int cardinality(){
+
+		int n = 0;
+		for(int w=0; w<words.length; w++) n += Long.bitCount(words[w]);
+		return n;
+	}
+
+
+	// returns the first requesting master at or after from, or -1 if there is none
+	public int nextSetBit(int from){
+
+		if(from >= size) return -1;
+
+		int w = from >>> 6;
+		long word = words[w] & (-1L << from); // ignore masters before from
+		while(true){
+			if(word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+			if(++w == words.length) return -1;
+			word = words[w];
+		}
+	}
+
+	// as nextSetBit, but wraps around to master 0 after the last master
+	public int nextSetBitCyclic(int from){
+
+		int master = nextSetBit(from);
+		return master != -1 ? master : nextSetBit(0);
+	}
+
+}
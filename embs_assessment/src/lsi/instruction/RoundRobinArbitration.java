@@ -0,0 +1,37 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Round-robin arbitration: the master granted last has the lowest priority on the next arbitration, the one
+ * right after it the highest.
+ * 
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class RoundRobinArbitration implements ArbitrationPolicy, Checkpointable {
+
+	protected int last;
+
+	public void initialize(int masters){
+		last = masters - 1; // so that master 0 has the highest priority at first
+	}
+
+	public int arbitrate(RequestMask requests, long cycle){
+
+		int i = requests.nextSetBitCyclic(last + 1); // search rotated to start right after the last grant
+		if(i != -1) last = i;
+		return i;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException{
+		out.writeInt(last);
+	}
+
+	public void loadState(DataInputStream in) throws IOException{
+		last = in.readInt();
+	}
+
+}
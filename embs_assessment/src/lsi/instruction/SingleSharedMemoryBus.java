@@ -9,26 +9,83 @@ package lsi.instruction;
  * to its address and/data lines, as well as the arbitration, write and read request signals. Likewise, it uses RecordToken
  * instances to implicitly represent grant and acknowledge signals.
  * 
- * Arbitration of requests is based on fixed priorities, with master at input channel 0 having the highest priority and the 
- * master at input channel n with the lowest priority (where n+1 is the number of masters).
+ * Arbitration of requests is delegated to an lsi.instruction.ArbitrationPolicy selected by the "arbitration" parameter:
+ * 
+ * - fixed priority (default): master at input channel 0 has the highest priority and the master at input channel n 
+ *   the lowest priority (where n+1 is the number of masters)
+ * - round robin: the master granted last gets the lowest priority
+ * - weighted round robin: as round robin, master i keeps the bus for up to "arbitration weights"[i] consecutive grants
+ * - tdma: cycle c belongs to master "tdma slots"[c % length], other masters wait for their slot
+ * - lottery: master i wins with a probability proportional to "arbitration weights"[i] tickets, drawn from "lottery seed"
+ * 
+ * Weights default to 1 for every master and the slot table to one slot per master, in channel order.
+ * 
+ * For every master, the bus counts the grants it received and the cycles it spent requesting without being granted
+ * (see getGrantCounts() and getWaitCycles()); both are printed upon wrapup when
+ * "print statistics" is set.
  * 
  * Once given arbitration to a master, the bus forwards its request to the shared memory via its toMemory port and, 
  * in case of a READ transaction, waits for a response on its fromMemory port.
  * 
- * Actor also has three ports for debug purposes:
+ * When the "split transactions" parameter is true, the bus no longer waits for the memory response of a READ: 
+ * it is released right after the address phase, so the address phase of the next transaction overlaps the data phase 
+ * of the previous one. Up to "max outstanding" READs can be awaiting their data; memory answers them in order, 
+ * so responses are tagged with the masters of the outstanding READs, oldest first, and routed back accordingly. 
+ * As a WRITE drives the data sub-bus during its address phase, WRITEs are only granted while no READ is outstanding.
+ * 
+ * Private caches (see lsi.instruction.ProcessorCache) are kept coherent by snooping when the snoop multiport is connected,
+ * channel i leading to the cache of master i. Every transaction granted arbitration is sent on the snoop channels of all 
+ * other masters before its address phase, and their caches answer on the "snoop response" multiport within the same cycle:
+ * 
+ * - WRITE tokens: words the cache holds modified for the snooped line, or has yet to write to memory. The snooped
+ *   transaction is then aborted (its master is not granted and retries) and the bus writes these words to memory 
+ *   first, one per cycle, before resuming arbitration
+ * - any other token: the cache holds the snooped line. The GRANT of a READ then carries 1 in its (otherwise unused)
+ *   time field, telling the requesting cache the line is shared
+ * 
+ * Snooping is only supported in blocking mode.
+ * 
+ * When the "trace file" parameter is set, every value driven on the sub-buses is also recorded to that file, along with
+ * its cycle and master, in the compact binary format of lsi.instruction.BusTraceWriter. Traces can be replayed into a
+ * TransitionCounter by lsi.instruction.BusTraceSource, or analysed offline by q3.TraceAnalyser. The number of values
+ * recorded is printed upon wrapup when "print statistics" is set.
+ * 
+ * In both modes, the bus counts the cycles in which it carried an address or data phase, as well as the completed 
+ * transactions (see getBusyCycles(), getUtilisation() and getCompletedTransactions()); all are printed upon wrapup when
+ * "print statistics" is set.
+ * 
+ * When skipping idle cycles (see lsi.instruction.ClockedActor), the bus is only fired on the cycles in which it has
+ * something to drive, and upon reception of requests or memory responses.
+ * 
+ * Actor also has five ports for debug and analysis purposes:
  * 
  * - debug: outputs the ID of the master that holds arbitration to the bus (or -1 in case of a memory-driven DATA value)
+ * - data bus word: upon a change, outputs the state of the data sub-bus as a 16-bit int value (-1 if out of range)
+ * - address bus word: upon a change, outputs the state of the address sub-bus as a 16-bit int value (-1 if out of range)
  * - data bus state: upon a change, outputs the state of the data sub-bus, in a string representing a 16-bit binary value 
  * - address bus state: upon a change, outputs the state of the address sub-bus, in a string representing a 16-bit binary value 
  * 
+ * The string ports are a debug view of the word ports, and are only driven while the "string bus state" parameter is true.
+ * Tokens sent on the state ports are cached per value, so no new tokens are created after the first use of each value.
+ * 
  */
 
-import ptolemy.actor.TypedAtomicActor;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
 import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.util.Time;
+import ptolemy.data.ArrayToken;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.RecordToken;
 import ptolemy.data.StringToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.ArrayType;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
@@ -36,26 +93,64 @@ import ptolemy.kernel.util.NameDuplicationException;
 
 
 @SuppressWarnings("serial")
-public class SingleSharedMemoryBus extends TypedAtomicActor {
+public class SingleSharedMemoryBus extends ClockedActor {
 
 	protected int activeMaster, masters;
-	protected int[] currentArbitrationRequests;
+	protected RequestMask currentArbitrationRequests;
+	protected ArbitrationPolicy arbitrationPolicy;
+	protected long[] grantCounts, waitCycles;
 	protected IntToken[] debugTokens;
+	protected boolean stringStates;
+
+	// one token per 16-bit bus value, filled lazily and shared by all bus instances
+	private static final IntToken[] wordTokens = new IntToken[65536];
+	private static final StringToken[] stateTokens = new StringToken[65536];
+	private static final IntToken ERROR_WORD = new IntToken(-1);
+	private static final StringToken ERROR_STATE = new StringToken("ERROR");
 
 	protected RecordToken toSend;
 	protected Time sendTime;
 	protected boolean toMaster;
 
-	protected TypedIOPort input, output, clk, debug, dataBusState, addressBusState, toMemory, fromMemory;
+	// split transaction mode: READs awaiting their data, oldest first, in a ring buffer of masters
+	protected boolean splitTransactions;
+	protected int maxOutstanding;
+	protected int[] outstandingMasters;
+	protected int outstandingHead, outstandingCount, outstandingResponses;
+	protected RecordToken response;
+	protected int responseMaster;
+	protected RecordToken[] requestTokens;
+	protected RequestMask eligibleRequests;
+
+	protected long busyCycles, completedTransactions;
+
+	// snooping: words to be written to memory on behalf of caches, and whether the snooped READ hit a shared line
+	protected boolean snooping, sharedLine;
+	protected ArrayDeque<RecordToken> flushQueue = new ArrayDeque<RecordToken>();
+	protected long abortedTransactions, flushedWords;
+
+	// binary trace of the values driven on the sub-buses, null if not recorded
+	protected BusTraceWriter trace;
+
+	protected TypedIOPort input, output, debug, dataBusState, addressBusState, dataBusWord, addressBusWord, toMemory, fromMemory;
+	protected TypedIOPort snoop, snoopResponse;
+	protected Parameter stringBusState;
+	protected StringParameter arbitration;
+	protected Parameter arbitrationWeights, tdmaSlots, lotterySeed;
+	protected Parameter splitTransactionMode, maxOutstandingTransactions;
+	protected StringParameter traceFile;
+
+	public static final String FIXED_PRIORITY = ArbitrationPolicies.FIXED_PRIORITY;
+	public static final String ROUND_ROBIN = ArbitrationPolicies.ROUND_ROBIN;
+	public static final String WEIGHTED_ROUND_ROBIN = ArbitrationPolicies.WEIGHTED_ROUND_ROBIN;
+	public static final String TDMA = ArbitrationPolicies.TDMA;
+	public static final String LOTTERY = ArbitrationPolicies.LOTTERY;
 
 	public SingleSharedMemoryBus(CompositeEntity container, String name)
 			throws NameDuplicationException, IllegalActionException  {
 
 		super(container, name);
 
-		clk = new TypedIOPort(this, "clk", true, false); // clock signal
-
-		
 		toMemory = new TypedIOPort(this, "toMemory", false, true); // sends requests to memory
 		fromMemory = new TypedIOPort(this, "fromMemory", true, false); // receives data from memory
 
@@ -84,6 +179,19 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 
 		dataBusState.setTypeEquals(BaseType.STRING);
 		addressBusState.setTypeEquals(BaseType.STRING);
+
+		stringBusState = new Parameter(this, "string bus state");
+		stringBusState.setTypeEquals(BaseType.BOOLEAN);
+		stringBusState.setExpression("true");
+
+
+		// same state as raw 16-bit values, as an IntToken
+
+		dataBusWord = new TypedIOPort(this, "data bus word", false, true);
+		addressBusWord = new TypedIOPort(this, "address bus word", false, true);
+
+		dataBusWord.setTypeEquals(BaseType.INT);
+		addressBusWord.setTypeEquals(BaseType.INT);
 		
 		
 		// debug port, outputs the index of the master that has been 
@@ -92,6 +200,52 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 		debug.setTypeEquals(BaseType.INT);
 
 
+		// arbitration policy and its settings
+
+		arbitration = new StringParameter(this, "arbitration");
+		arbitration.setExpression(FIXED_PRIORITY);
+		arbitration.addChoice(FIXED_PRIORITY);
+		arbitration.addChoice(ROUND_ROBIN);
+		arbitration.addChoice(WEIGHTED_ROUND_ROBIN);
+		arbitration.addChoice(TDMA);
+		arbitration.addChoice(LOTTERY);
+
+		arbitrationWeights = new Parameter(this, "arbitration weights"); // empty: 1 per master
+		arbitrationWeights.setTypeEquals(new ArrayType(BaseType.INT));
+
+		tdmaSlots = new Parameter(this, "tdma slots"); // empty: one slot per master
+		tdmaSlots.setTypeEquals(new ArrayType(BaseType.INT));
+
+		lotterySeed = new Parameter(this, "lottery seed");
+		lotterySeed.setTypeEquals(BaseType.INT);
+		lotterySeed.setExpression("0");
+
+
+		// split transaction (pipelined) mode
+
+		splitTransactionMode = new Parameter(this, "split transactions");
+		splitTransactionMode.setTypeEquals(BaseType.BOOLEAN);
+		splitTransactionMode.setExpression("false");
+
+		maxOutstandingTransactions = new Parameter(this, "max outstanding");
+		maxOutstandingTransactions.setTypeEquals(BaseType.INT);
+		maxOutstandingTransactions.setExpression("2");
+
+
+		// snooping, one channel per master
+
+		snoop = new TypedIOPort(this, "snoop", false, true);
+		snoopResponse = new TypedIOPort(this, "snoop response", true, false);
+		snoop.setMultiport(true);
+		snoopResponse.setMultiport(true);
+		snoop.setTypeEquals(Instruction.getTokenType());
+		snoopResponse.setTypeEquals(Instruction.getTokenType());
+
+
+		// bus trace, see lsi.instruction.BusTraceWriter
+
+		traceFile = new StringParameter(this, "trace file"); // empty: not recorded
+		traceFile.setExpression("");
 
 	}
 
@@ -103,7 +257,18 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 
 		masters=input.getWidth(); // number of masters obtained from the width of the input multiport
 
-		currentArbitrationRequests = new int[masters]; // instantiate an array to handle arbitration requests
+		currentArbitrationRequests = new RequestMask(masters); // one bit per master to handle arbitration requests
+
+		try{
+			arbitrationPolicy = createArbitrationPolicy();
+			arbitrationPolicy.initialize(masters);
+		}
+		catch(IllegalArgumentException e){
+			throw new IllegalActionException(this, e.getMessage());
+		}
+
+		grantCounts = new long[masters];
+		waitCycles = new long[masters];
 
 		// create one token per master, to be sent out via debug port
 		// avoids creating new tokens, lower memory and processing overheads
@@ -115,42 +280,133 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 		}
 		debugTokens[masters] = new IntToken(-1); // plus one for memory
 
+		stringStates = ((BooleanToken)stringBusState.getToken()).booleanValue();
+
 
 		// initialise state-holding variables
 		
 		toMaster=false;
 		toSend=null;
 
+		busyCycles=0;
+		completedTransactions=0;
+
+		splitTransactions = ((BooleanToken)splitTransactionMode.getToken()).booleanValue();
+		if(splitTransactions){
+
+			maxOutstanding = ((IntToken)maxOutstandingTransactions.getToken()).intValue();
+			if(maxOutstanding < 1) throw new IllegalActionException(this, "max outstanding must be positive");
+
+			outstandingMasters = new int[maxOutstanding];
+			outstandingHead = 0;
+			outstandingCount = 0;
+			outstandingResponses = 0;
+			response = null;
+			responseMaster = -1;
+			requestTokens = new RecordToken[masters];
+			eligibleRequests = new RequestMask(masters);
+		}
+
+		snooping = snoop.getWidth() > 0;
+		if(snooping && snoop.getWidth() != masters) throw new IllegalActionException(this, "snoop must have one channel per master");
+		if(snooping && splitTransactions) throw new IllegalActionException(this, "snooping is not supported in split transaction mode");
+		flushQueue.clear();
+		sharedLine = false;
+		abortedTransactions = 0;
+		flushedWords = 0;
+
+		closeTrace();
+		String file = traceFile.stringValue().trim();
+		if(!file.isEmpty()){
+			try{
+				trace = new BusTraceWriter(new File(file));
+			}
+			catch(IOException e){
+				throw new IllegalActionException(this, e, "Could not create trace file "+file);
+			}
+		}
+
+		resume();
+
+	}
+
+
+	// loads the state saved in the checkpoint being resumed from, if any, once the state of the bus is initialised,
+	// and asks for the tick of a pending transaction; returns whether the state was restored
+	protected boolean resume() throws IllegalActionException{
+
+		if(!restoreState()) return false;
+		if(toSend!=null || response!=null || !flushQueue.isEmpty()) requestTick(1);
+		return true;
 	}
 
 	public void fire() throws IllegalActionException{
 
 
-		if(clk.hasToken(0)){
+		// collect the arbitration requests received on the current cycle, in a single pass over the masters
+		currentArbitrationRequests.clear();
+		for(int i=0;i<masters;i++){
+
+			if(input.hasToken(i)) currentArbitrationRequests.set(i);
+
+		}
+
+		if(splitTransactions){
+			fireSplitTransaction();
+			return;
+		}
+
+		if(snooping) receiveSnoopResponses();
+
+
+		if(tick()){
+
+			if(!flushQueue.isEmpty()){ // words to be written on behalf of a snooping cache take over the bus
+
+				if(toSend!=null && !toMaster){ // abort the snooped transaction, its master retries
+					activeMaster=-1;
+					toSend=null;
+					abortedTransactions++;
+				}
+
+				RecordToken flush = flushQueue.poll();
+				toMemory.send(0, flush); // write to memory
+				sendAddressBusState(-1, flush); // outputs new address bus state
+				sendDataBusState(-1, flush); // outputs new data bus state
+				busyCycles++;
+				flushedWords++;
+			}
 
-			clk.get(0); // consume clock token
+			else if(toSend!=null){  // data driven to the bus needs to be sent to destination
 
-			if(toSend!=null){  // data driven to the bus needs to be sent to destination
+				busyCycles++;
 
 				if(toMaster){ // if second phase of a read transaction
 					
 					output.send(activeMaster, toSend); // send response to active master
 					debug.send(0,debugTokens[masters]); // send out debug info
-					dataBusState.send(0, new StringToken(getDataBusCurrentState(toSend))); // outputs new data bus state
+					sendDataBusState(activeMaster, toSend); // outputs new data bus state
 					activeMaster=-1; 	// finish transaction
+					completedTransactions++;
 
 				}
 				else{        // else, first phase of a read or write transaction
 					toMemory.send(0, toSend); // send request to memory
-					output.send(activeMaster, toSend); // GRANT signal - sends back a token to the successful master to confirm it was granted arbitration
 					debug.send(0, debugTokens[activeMaster]); // send out debug info
-					addressBusState.send(0,  new StringToken(getAddressBusCurrentState(toSend))); // // outputs new address bus state
+					sendAddressBusState(activeMaster, toSend); // outputs new address bus state
 
 					// if request is a WRITE, close the transaction right after sending it to memory
-					int type = ((IntToken)toSend.get("type")).intValue();
+					int type = Instruction.fromToken(toSend).type;
+
+					// GRANT signal - sends back a token to the successful master to confirm it was granted arbitration
+					if(sharedLine && type==Instruction.READ){
+						output.send(activeMaster, InstructionToken.valueOf(Instruction.READ, -1, Instruction.fromToken(toSend).address, 1));
+					}
+					else output.send(activeMaster, toSend);
 					if(type==Instruction.WRITE){ 
+						sendDataBusState(activeMaster, toSend); // outputs new data bus state
 						activeMaster=-1;  
-						dataBusState.send(0,  new StringToken(getDataBusCurrentState(toSend))); // // outputs new data bus state
+						completedTransactions++;
 
 						
 					}
@@ -173,71 +429,383 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 
 		}		
 
-		else {   // no ongoing transactions, process arbitration requests
+		else if(flushQueue.isEmpty()){   // no ongoing transactions, process arbitration requests
 
-			for(int i=0;i<masters;i++){
+			activeMaster = currentArbitrationRequests.isEmpty() ? -1 : performArbitration();
 
-				if(input.hasToken(i)) currentArbitrationRequests[i]=1;
-				else currentArbitrationRequests[i]=0;
+			if(activeMaster!=-1){ // if there's a successful request
+
+				grantCounts[activeMaster]++;
+				toSend = (RecordToken)input.get(activeMaster); // queue a read request over the next clock cycle
+				currentArbitrationRequests.clear(activeMaster);
+				toMaster=false;  // read request should be sent to memory
+
+				if(snooping){ // let the other caches react before the address phase
+					sharedLine = false;
+					for(int i=0;i<masters;i++){
+						if(i!=activeMaster) snoop.send(i, toSend);
+					}
+				}
 
 			}
+		}
 
-			activeMaster = performArbitration();
+		// discard all remaining arbitration requests received on the current cycle, visiting requesting masters only
+		for(int i=currentArbitrationRequests.nextSetBit(0); i!=-1; i=currentArbitrationRequests.nextSetBit(i+1)){
 
-			if(activeMaster!=-1){ // if there's a successful request
+			input.get(i);
+			waitCycles[i]++; // master will retry on the next cycle
 
-				toSend = (RecordToken)input.get(activeMaster); // queue a read request over the next clock cycle
-				toMaster=false;  // read request should be sent to memory
+		}
+
+		if(toSend!=null || !flushQueue.isEmpty()) requestTick(1); // idle cycles can be skipped until then
+
+	}
+
+
+
+	protected void fireSplitTransaction() throws IllegalActionException{
+
+		// requests are all consumed now, as their type decides whether they can be granted
+		for(int i=currentArbitrationRequests.nextSetBit(0); i!=-1; i=currentArbitrationRequests.nextSetBit(i+1)){
+			requestTokens[i] = (RecordToken)input.get(i);
+		}
+
+
+		boolean clock = tick();
+
+		if(clock){
+
+			boolean busy = false;
+
+			if(response!=null){ // data phase of the oldest outstanding READ
+
+				output.send(responseMaster, response); // send response to the master that issued the READ
+				debug.send(0,debugTokens[masters]); // send out debug info
+				sendDataBusState(responseMaster, response); // outputs new data bus state
+				response=null;
+				outstandingCount--;
+				completedTransactions++;
+				busy = true;
+			}
+
+			if(toSend!=null){ // address phase, overlaps the data phase above
+
+				toMemory.send(0, toSend); // send request to memory
+				output.send(activeMaster, toSend); // GRANT signal
+				debug.send(0, debugTokens[activeMaster]); // send out debug info
+				sendAddressBusState(activeMaster, toSend); // outputs new address bus state
+
+				if(Instruction.fromToken(toSend).type==Instruction.WRITE){
+					sendDataBusState(activeMaster, toSend); // outputs new data bus state
+					completedTransactions++;
+				}
+				else{
+					// tag the READ with its master, to route the memory response back
+					outstandingMasters[(outstandingHead + outstandingResponses) % maxOutstanding] = activeMaster;
+					outstandingResponses++;
+				}
+
+				activeMaster=-1; // bus released right after the address phase
+				toSend=null;
+				busy = true;
+			}
+
+			if(busy) busyCycles++;
+		}
+
+
+		if(response==null && outstandingResponses > 0 && fromMemory.hasToken(0)){
+
+			// memory answers in order, the response belongs to the oldest outstanding READ
+			response = (RecordToken)fromMemory.get(0);
+			responseMaster = outstandingMasters[outstandingHead];
+			outstandingHead = (outstandingHead + 1) % maxOutstanding;
+			outstandingResponses--;
+		}
+
+
+		if(!clock && toSend==null && outstandingCount < maxOutstanding){ // bus free for a new address phase
+
+			eligibleRequests.clear();
+			for(int i=currentArbitrationRequests.nextSetBit(0); i!=-1; i=currentArbitrationRequests.nextSetBit(i+1)){
+
+				// a WRITE would drive the data sub-bus while READ data may be returned on it
+				if(outstandingCount==0 || Instruction.fromToken(requestTokens[i]).type!=Instruction.WRITE){
+					eligibleRequests.set(i);
+				}
+			}
 
+			activeMaster = eligibleRequests.isEmpty() ? -1 : arbitrationPolicy.arbitrate(eligibleRequests, cycle);
+
+			if(activeMaster!=-1){
+
+				grantCounts[activeMaster]++;
+				toSend = requestTokens[activeMaster]; // queue the request over the next clock cycle
+				currentArbitrationRequests.clear(activeMaster);
+				if(Instruction.fromToken(toSend).type!=Instruction.WRITE) outstandingCount++; // counted until its data is delivered
 			}
 		}
 
-		// discard all remaining arbitration requests received on the current cycle
+
+		// all other requests are discarded, their masters will retry on the next cycle
+		for(int i=currentArbitrationRequests.nextSetBit(0); i!=-1; i=currentArbitrationRequests.nextSetBit(i+1)){
+
+			requestTokens[i]=null;
+			waitCycles[i]++;
+
+		}
+		if(activeMaster!=-1) requestTokens[activeMaster]=null;
+
+		if(toSend!=null || response!=null) requestTick(1); // idle cycles can be skipped until then
+
+	}
+
+
+
+	protected void receiveSnoopResponses() throws IllegalActionException{
+
 		for(int i=0;i<masters;i++){
+			while(snoopResponse.hasToken(i)){
+				RecordToken token = (RecordToken)snoopResponse.get(i);
+				if(Instruction.fromToken(token).type==Instruction.WRITE) flushQueue.add(token); // written before the snooped transaction
+				else sharedLine = true;
+			}
+		}
+	}
+
+
+
+	public void saveState(DataOutputStream out) throws IOException{
+
+		super.saveState(out);
 
-			if(input.hasToken(i)) input.get(i);
+		out.writeInt(activeMaster);
+		writeToken(out, toSend);
+		out.writeBoolean(toMaster);
 
+		Checkpoint.writeLongs(out, grantCounts);
+		Checkpoint.writeLongs(out, waitCycles);
+		out.writeLong(busyCycles);
+		out.writeLong(completedTransactions);
+		if(arbitrationPolicy instanceof Checkpointable) ((Checkpointable)arbitrationPolicy).saveState(out);
+
+		out.writeBoolean(splitTransactions);
+		if(splitTransactions){
+			Checkpoint.writeInts(out, outstandingMasters);
+			out.writeInt(outstandingHead);
+			out.writeInt(outstandingCount);
+			out.writeInt(outstandingResponses);
+			writeToken(out, response);
+			out.writeInt(responseMaster);
 		}
 
+		out.writeBoolean(sharedLine);
+		out.writeInt(flushQueue.size());
+		for(RecordToken flush : flushQueue) writeToken(out, flush);
+		out.writeLong(abortedTransactions);
+		out.writeLong(flushedWords);
+	}
+
+
+	public void loadState(DataInputStream in) throws IOException{
+
+		super.loadState(in);
+
+		activeMaster = in.readInt();
+		toSend = readToken(in);
+		toMaster = in.readBoolean();
+
+		Checkpoint.readLongs(in, grantCounts);
+		Checkpoint.readLongs(in, waitCycles);
+		busyCycles = in.readLong();
+		completedTransactions = in.readLong();
+		if(arbitrationPolicy instanceof Checkpointable) ((Checkpointable)arbitrationPolicy).loadState(in);
+
+		if(in.readBoolean() != splitTransactions) throw new IOException("saved with another split transactions mode");
+		if(splitTransactions){
+			Checkpoint.readInts(in, outstandingMasters);
+			outstandingHead = in.readInt();
+			outstandingCount = in.readInt();
+			outstandingResponses = in.readInt();
+			response = readToken(in);
+			responseMaster = in.readInt();
+		}
+
+		sharedLine = in.readBoolean();
+		flushQueue.clear();
+		int flushes = in.readInt();
+		for(int i=0;i<flushes;i++) flushQueue.add(readToken(in));
+		abortedTransactions = in.readLong();
+		flushedWords = in.readLong();
 	}
 
 
 
 	protected int performArbitration(){
 
-		for(int i=0; i<currentArbitrationRequests.length;i++){
+		return arbitrationPolicy.arbitrate(currentArbitrationRequests, cycle);
+
+	}
+
+
+	protected ArbitrationPolicy createArbitrationPolicy() throws IllegalActionException{
+
+		long seed = ((IntToken)lotterySeed.getToken()).intValue();
+
+		try{
+			return ArbitrationPolicies.create(arbitration.stringValue(), masters,
+					getIntArray(arbitrationWeights, 1), getIntArray(tdmaSlots, -1), seed);
+		}
+		catch(IllegalArgumentException e){
+			throw new IllegalActionException(this, e.getMessage());
+		}
+	}
+
 
-			if(currentArbitrationRequests[i]==1) return i;   // performs fixed priority arbitration, with 0 as the highest priority
+	// returns the contents of an int array parameter, or one entry per master if it is empty
+	// (set to fill, or to the master index if fill is -1)
+	protected int[] getIntArray(Parameter parameter, int fill) throws IllegalActionException{
 
+		ArrayToken token = (ArrayToken)parameter.getToken();
+		int[] values;
+
+		if(token == null || token.length() == 0){
+			values = new int[masters];
+			for(int i=0;i<masters;i++) values[i] = fill == -1 ? i : fill;
+		}
+		else{
+			values = new int[token.length()];
+			for(int i=0;i<values.length;i++) values[i] = ((IntToken)token.getElement(i)).intValue();
 		}
 
-		return -1;
+		return values;
+	}
+
+
+	public long[] getGrantCounts(){
+		return grantCounts.clone();
+	}
+
+	public long[] getWaitCycles(){
+		return waitCycles.clone();
+	}
+
+	public long getBusyCycles(){
+		return busyCycles;
+	}
+
+	public long getCompletedTransactions(){
+		return completedTransactions;
+	}
+
+	public long getAbortedTransactions(){
+		return abortedTransactions;
+	}
 
+	public long getFlushedWords(){
+		return flushedWords;
 	}
 
+	// fraction of the elapsed cycles in which an address or data phase was carried
+	public double getUtilisation(){
+		return cycle == 0 ? 0 : (double)busyCycles / cycle;
+	}
+
+
+	public void wrapup() throws IllegalActionException{
+
+		super.wrapup();
+		if(trace!=null){
+			if(printing) System.out.println(getName()+": "+trace.getBeats()+" beats traced to "+traceFile.stringValue().trim());
+			closeTrace();
+		}
+		if(grantCounts==null || !printing) return; // initialisation did not complete, or statistics not printed
+
+		for(int i=0;i<masters;i++){
+			System.out.println(getName()+" master "+i+": "+grantCounts[i]+" grants, "+waitCycles[i]+" wait cycles");
+		}
+		System.out.println(getName()+": "+completedTransactions+" transactions, "+busyCycles+"/"+cycle+" busy cycles ("
+				+Math.round(getUtilisation()*1000)/10.0+"% utilisation)");
+		if(snooping){
+			System.out.println(getName()+": "+abortedTransactions+" transactions aborted by snooping, "+flushedWords+" words flushed");
+		}
+	}
+
+
+
+	// master: the one the transaction belongs to, -1 for words flushed on behalf of a cache
+	protected void sendDataBusState(int master, RecordToken token) throws IllegalActionException{
+
+		int data = Instruction.fromToken(token).data;
+		dataBusWord.send(0, getBusWordToken(data));
+		if(stringStates) dataBusState.send(0, getBusStateToken(data));
+		if(trace!=null) trace.dataDriven(cycle, master, data);
+	}
+
+	protected void sendAddressBusState(int master, RecordToken token) throws IllegalActionException{
+
+		int add = Instruction.fromToken(token).address;
+		addressBusWord.send(0, getBusWordToken(add));
+		if(stringStates) addressBusState.send(0, getBusStateToken(add));
+		if(trace!=null) trace.addressDriven(cycle, master, add);
+	}
+
+
+	protected void closeTrace() throws IllegalActionException{
+
+		if(trace==null) return;
+		try{
+			trace.close();
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Could not write trace file "+traceFile.stringValue().trim());
+		}
+		finally{
+			trace = null;
+		}
+	}
+
+
+	protected static IntToken getBusWordToken(int value){
+		if(value > 65535 || value < 0) return ERROR_WORD;
+		IntToken token = wordTokens[value];
+		if(token == null){
+			token = new IntToken(value);
+			wordTokens[value] = token;
+		}
+		return token;
+	}
+
+	protected static StringToken getBusStateToken(int value){
+		if(value > 65535 || value < 0) return ERROR_STATE;
+		StringToken token = stateTokens[value];
+		if(token == null){
+			token = new StringToken(Integer.toBinaryString(0x10000 | value).substring(1)); // adds zero padding by adding then removing a 1 in the 17th place
+			stateTokens[value] = token;
+		}
+		return token;
+	}
 
 
 	protected String getDataBusCurrentState(RecordToken token){
-		int data = ((IntToken)token.get("data")).intValue();
-		if(data > 65535 || data < 0) return "ERROR";
-		else return Integer.toBinaryString(0x10000 | data).substring(1); // adds zero padding by adding then removing a 1 in the 17th place
-		
+		return getBusStateToken(Instruction.fromToken(token).data).stringValue();
 	}
 	
 	protected String getAddressBusCurrentState(RecordToken token){
-		int add = ((IntToken)token.get("address")).intValue();
-		if(add > 65535 || add < 0) return "ERROR";
-		else return Integer.toBinaryString(0x10000 | add).substring(1); // adds zero padding by adding then removing a 1 in the 17th place
-		
+		return getBusStateToken(Instruction.fromToken(token).address).stringValue();
 	}
 	
 	
 
-
 	public void pruneDependencies() {
 		super.pruneDependencies();
 		removeDependency(input, output);
 		removeDependency(input, toMemory);
+		// snoop responses only take effect on the next clock cycle
+		removeDependency(snoopResponse, snoop);
+		removeDependency(snoopResponse, output);
+		removeDependency(snoopResponse, toMemory);
 	}
 
 
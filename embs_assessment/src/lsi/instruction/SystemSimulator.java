@@ -0,0 +1,551 @@
+package lsi.instruction;
+
+/*
+ *
+ * Cycle-accurate simulation of InstructionProcessor masters connected to a MemoryController through a
+ * SingleSharedMemoryBus, without Ptolemy: no actors, no tokens and no director.
+ *
+ * All state is held in primitive arrays, one entry per processor, and transactions are bit-packed as memory words
+ * (see lsi.instruction.MemoryImage). The state machines are those of the actors, in blocking bus mode, with the
+ * events of each cycle taking place in the following order:
+ *
+ * 1. the memory controller answers the READ it received on the previous cycle
+ * 2. the bus drives the transaction queued on the previous cycle: a request is forwarded to memory and granted to its
+ *    master, a READ response is delivered to its master. It then queues the memory response, if any
+ * 3. every processor acts on the grant or data delivered to it, or else issues its request (again, potentially)
+ * 4. if idle, the bus arbitrates among the requests issued on this cycle, and queues the winner's request
+ *
+ * Cycles in which every processor is counting down an EXECUTE and the bus and memory are idle are skipped in one go,
+ * which does not change the outcome. The simulation stops after a given number of cycles, or once halted: every
+ * processor waiting for a response that will never come (e.g. after decoding a DATA word) and the bus idle.
+ *
+ * Values driven on the sub-buses can be observed with a BusListener. The memory image given upon construction is
+ * copied (pages are shared until written), so any number of simulations can start from the same image, concurrently
+ * if it is frozen (see lsi.instruction.MemoryImage).
+ *
+ * Only depends on Ptolemy-free classes of this package, and can be run from the command line:
+ *
+ * java lsi.instruction.SystemSimulator <memory file | test> <initial PC>... [-cycles n] [-arbitration policy]
+ *      [-weights w0,w1,...] [-slots s0,s1,...] [-seed n] [-trace] [-record file] [-dump]
+ *      [-restore file] [-checkpoint file]
+ *
+ * which prints the per-master and bus statistics printed by the actors upon wrapup, and optionally the bus trace
+ * and the final memory contents (in the format of MemoryController). The bus trace can also be recorded to a binary
+ * file (see lsi.instruction.BusTraceWriter), for offline analysis.
+ *
+ * The whole state of the simulation can be saved between two cycles and resumed later (see lsi.instruction.Checkpoint),
+ * memory included as the pages written since the start only: -restore resumes from a checkpoint taken with the same
+ * memory file, initial PCs and arbitration policy, and -checkpoint saves the state reached once done. -cycles then
+ * counts the cycles simulated by this run, so a run can be split in slices without changing its outcome.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+public class SystemSimulator implements Checkpointable {
+
+	protected final MemoryImage memory;
+	protected final MemoryImage initial; // contents upon construction, frozen
+	protected final int processors;
+	protected final ArbitrationPolicy arbitration;
+	protected BusListener listener;
+
+	// processors, as in InstructionProcessor
+	protected final int[] pc, state, timer, raddress, rdata;
+
+	// requests issued on the current cycle
+	protected final long[] requests;
+	protected final RequestMask requesting;
+
+	// bus, as in SingleSharedMemoryBus
+	protected int activeMaster = -1;
+	protected long toSend;
+	protected boolean sending, toMaster;
+
+	// memory controller, as in MemoryController
+	protected int readAddress = -1;
+
+	// grant or data delivered by the bus on the current cycle
+	protected int inputMaster = -1;
+	protected long input;
+
+	protected long cycle;
+	protected final long[] grantCounts, waitCycles;
+	protected long busyCycles, completedTransactions;
+
+	public static final String CHECKPOINT_SECTION = "simulator";
+
+
+
+	public SystemSimulator(MemoryImage memory, int[] initialPCs, ArbitrationPolicy arbitration){
+
+		// isolated from the image given and from other simulations, pages written since are told apart from initial
+		initial = new MemoryImage(memory);
+		initial.freeze();
+		this.memory = new MemoryImage(initial);
+		this.processors = initialPCs.length;
+		this.arbitration = arbitration;
+		arbitration.initialize(processors);
+
+		pc = initialPCs.clone();
+		state = new int[processors];
+		timer = new int[processors];
+		raddress = new int[processors];
+		rdata = new int[processors];
+		for(int i=0;i<processors;i++) state[i] = InstructionProcessor.FETCH;
+
+		requests = new long[processors];
+		requesting = new RequestMask(processors);
+
+		grantCounts = new long[processors];
+		waitCycles = new long[processors];
+	}
+
+
+	public void setBusListener(BusListener listener){
+		this.listener = listener;
+	}
+
+
+
+	// simulates up to the given number of cycles, fewer if halted; returns the number of cycles simulated
+	public long run(long cycles){
+
+		long end = cycle + cycles;
+
+		while(cycle < end && !isHalted()){
+
+			long skip = Math.min(idleCycles(), end - cycle);
+			if(skip > 0){
+				for(int i=0;i<processors;i++){
+					if(state[i]==InstructionProcessor.EXECUTE) timer[i] -= skip;
+				}
+				cycle += skip;
+			}
+			else step();
+		}
+
+		return cycles - (end - cycle);
+	}
+
+
+	// simulates one clock cycle
+	public void step(){
+
+		cycle++;
+		inputMaster = -1;
+
+
+		// memory answers the READ received on the previous cycle
+
+		boolean responded = false;
+		long response = 0;
+
+		if(readAddress!=-1){
+			response = memory.getWord(readAddress);
+			readAddress = -1;
+			responded = true;
+		}
+
+
+		// bus drives the transaction queued on the previous cycle
+
+		if(sending){
+
+			busyCycles++;
+
+			if(toMaster){ // second phase of a read transaction
+				deliver(activeMaster, toSend);
+				if(listener!=null) listener.dataDriven(cycle, activeMaster, MemoryImage.dataOf(toSend));
+				activeMaster = -1;
+				completedTransactions++;
+			}
+			else{ // first phase of a read or write transaction
+				int type = MemoryImage.typeOf(toSend);
+				int address = MemoryImage.addressOf(toSend);
+
+				if(type==Instruction.READ) readAddress = address; // read and sent back on the next cycle
+				else if(type==Instruction.WRITE) memory.write(address, MemoryImage.dataOf(toSend));
+
+				deliver(activeMaster, toSend); // GRANT
+				if(listener!=null) listener.addressDriven(cycle, activeMaster, address);
+
+				if(type==Instruction.WRITE){
+					if(listener!=null) listener.dataDriven(cycle, activeMaster, MemoryImage.dataOf(toSend));
+					activeMaster = -1;
+					completedTransactions++;
+				}
+			}
+
+			sending = false;
+		}
+
+		if(responded && activeMaster!=-1){ // sent to the active master on the next cycle
+			toSend = response;
+			toMaster = true;
+			sending = true;
+		}
+
+
+		// processors
+
+		for(int i=0;i<processors;i++) tick(i);
+
+
+		// bus arbitrates if idle, all other requests are discarded and retried on the next cycle
+
+		if(activeMaster==-1 && !requesting.isEmpty()){
+
+			activeMaster = arbitration.arbitrate(requesting, cycle);
+
+			if(activeMaster!=-1){
+				grantCounts[activeMaster]++;
+				toSend = requests[activeMaster];
+				toMaster = false;
+				sending = true;
+				requesting.clear(activeMaster);
+			}
+		}
+
+		for(int i=requesting.nextSetBit(0); i!=-1; i=requesting.nextSetBit(i+1)){
+			waitCycles[i]++;
+		}
+		requesting.clear();
+	}
+
+
+	protected void deliver(int master, long word){
+		inputMaster = master;
+		input = word;
+	}
+
+
+	// one clock cycle of a processor, following InstructionProcessor.fire()
+	protected void tick(int p){
+
+		if(timer[p]!=0) timer[p]--;
+
+		if(inputMaster==p){
+
+			switch(state[p]){
+
+			case InstructionProcessor.FETCH: // FETCH GRANT RECEIVED
+				pc[p]++;
+				state[p] = InstructionProcessor.DECODE;
+				break;
+
+			case InstructionProcessor.WRITE: // WRITE GRANT RECEIVED
+				state[p] = InstructionProcessor.FETCH;
+				break;
+
+			case InstructionProcessor.READ: // READ GRANT RECEIVED
+				state[p] = InstructionProcessor.DATA_WAIT;
+				break;
+
+			case InstructionProcessor.DATA_WAIT: // READ DATA ACK RECEIVED
+				state[p] = InstructionProcessor.FETCH;
+				break;
+
+			case InstructionProcessor.DECODE: // DECODE FETCHED INSTRUCTION
+				decode(p, input);
+				break;
+			}
+		}
+		else{
+
+			switch(state[p]){
+
+			case InstructionProcessor.EXECUTE:
+				if(timer[p]==0) state[p] = InstructionProcessor.FETCH;
+				break;
+
+			case InstructionProcessor.WRITE:
+				request(p, MemoryImage.pack(Instruction.WRITE, rdata[p], raddress[p], -1));
+				break;
+
+			case InstructionProcessor.READ:
+				request(p, MemoryImage.pack(Instruction.READ, -1, raddress[p], -1));
+				break;
+
+			case InstructionProcessor.FETCH:
+				request(p, MemoryImage.pack(Instruction.READ, -1, pc[p], -1));
+				break;
+			}
+		}
+	}
+
+
+	protected void decode(int p, long word){
+
+		int type = MemoryImage.typeOf(word);
+
+		if(type==Instruction.EXECUTE){
+			timer[p] = MemoryImage.timeOf(word);
+			state[p] = InstructionProcessor.EXECUTE;
+		}
+		else if(type==Instruction.JUMP){
+			pc[p] = MemoryImage.addressOf(word);
+			state[p] = InstructionProcessor.FETCH;
+		}
+		else if(type==Instruction.WRITE){
+			raddress[p] = MemoryImage.addressOf(word);
+			rdata[p] = MemoryImage.dataOf(word);
+			state[p] = InstructionProcessor.WRITE;
+		}
+		else if(type==Instruction.READ){
+			raddress[p] = MemoryImage.addressOf(word);
+			state[p] = InstructionProcessor.READ;
+		}
+	}
+
+
+	protected void request(int p, long word){
+		requests[p] = word;
+		requesting.set(p);
+	}
+
+
+
+	protected boolean isBusIdle(){
+		return !sending && activeMaster==-1 && readAddress==-1;
+	}
+
+
+	// processors waiting for a grant or data with the bus idle will never receive it
+	public boolean isHalted(){
+
+		if(!isBusIdle()) return false;
+
+		for(int i=0;i<processors;i++){
+			if(state[i]!=InstructionProcessor.DECODE && state[i]!=InstructionProcessor.DATA_WAIT) return false;
+		}
+		return true;
+	}
+
+
+	// number of upcoming cycles in which nothing but EXECUTE timers change, 0 if none
+	protected long idleCycles(){
+
+		if(!isBusIdle()) return 0;
+
+		long idle = Long.MAX_VALUE;
+		for(int i=0;i<processors;i++){
+
+			if(state[i]==InstructionProcessor.EXECUTE) idle = Math.min(idle, timer[i] - 1); // expires on the cycle timer reaches 0
+			else if(state[i]!=InstructionProcessor.DECODE && state[i]!=InstructionProcessor.DATA_WAIT) return 0;
+		}
+		return idle==Long.MAX_VALUE ? 0 : Math.max(idle, 0);
+	}
+
+
+
+	// state between two cycles: the per-cycle request and input fields are not carried over
+	public void saveState(DataOutputStream out) throws IOException{
+
+		out.writeLong(cycle);
+
+		Checkpoint.writeInts(out, pc);
+		Checkpoint.writeInts(out, state);
+		Checkpoint.writeInts(out, timer);
+		Checkpoint.writeInts(out, raddress);
+		Checkpoint.writeInts(out, rdata);
+
+		out.writeInt(activeMaster);
+		out.writeLong(toSend);
+		out.writeBoolean(sending);
+		out.writeBoolean(toMaster);
+		out.writeInt(readAddress);
+
+		Checkpoint.writeLongs(out, grantCounts);
+		Checkpoint.writeLongs(out, waitCycles);
+		out.writeLong(busyCycles);
+		out.writeLong(completedTransactions);
+		if(arbitration instanceof Checkpointable) ((Checkpointable)arbitration).saveState(out);
+
+		memory.saveChanges(out, initial);
+	}
+
+
+	public void loadState(DataInputStream in) throws IOException{
+
+		cycle = in.readLong();
+
+		Checkpoint.readInts(in, pc);
+		Checkpoint.readInts(in, state);
+		Checkpoint.readInts(in, timer);
+		Checkpoint.readInts(in, raddress);
+		Checkpoint.readInts(in, rdata);
+
+		activeMaster = in.readInt();
+		toSend = in.readLong();
+		sending = in.readBoolean();
+		toMaster = in.readBoolean();
+		readAddress = in.readInt();
+
+		Checkpoint.readLongs(in, grantCounts);
+		Checkpoint.readLongs(in, waitCycles);
+		busyCycles = in.readLong();
+		completedTransactions = in.readLong();
+		if(arbitration instanceof Checkpointable) ((Checkpointable)arbitration).loadState(in);
+
+		memory.loadChanges(in, initial);
+	}
+
+
+
+	public MemoryImage getMemory(){
+		return memory;
+	}
+
+	public int getProcessors(){
+		return processors;
+	}
+
+	public long getCycle(){
+		return cycle;
+	}
+
+	public int getPC(int processor){
+		return pc[processor];
+	}
+
+	public int getState(int processor){
+		return state[processor];
+	}
+
+	public long[] getGrantCounts(){
+		return grantCounts.clone();
+	}
+
+	public long[] getWaitCycles(){
+		return waitCycles.clone();
+	}
+
+	public long getBusyCycles(){
+		return busyCycles;
+	}
+
+	public long getCompletedTransactions(){
+		return completedTransactions;
+	}
+
+	public double getUtilisation(){
+		return cycle == 0 ? 0 : (double)busyCycles / cycle;
+	}
+
+
+
+	public static void main(String[] args) throws IOException{
+
+		if(args.length < 2){
+			System.err.println("usage: SystemSimulator <memory file | test> <initial PC>... [-cycles n] [-arbitration policy]"
+					+ " [-weights w0,w1,...] [-slots s0,s1,...] [-seed n] [-trace] [-record file] [-dump]"
+					+ " [-restore file] [-checkpoint file]");
+			System.exit(1);
+		}
+
+		long cycles = Long.MAX_VALUE;
+		String policy = ArbitrationPolicies.FIXED_PRIORITY;
+		int[] weights = null, slots = null;
+		long seed = 0;
+		boolean trace = false, dump = false;
+		String record = null, restore = null, checkpoint = null;
+
+		int count = 0;
+		int[] pcs = new int[args.length - 1];
+
+		for(int i=1;i<args.length;i++){
+
+			if(args[i].equals("-cycles")) cycles = Long.parseLong(args[++i]);
+			else if(args[i].equals("-arbitration")) policy = args[++i];
+			else if(args[i].equals("-weights")) weights = parseInts(args[++i]);
+			else if(args[i].equals("-slots")) slots = parseInts(args[++i]);
+			else if(args[i].equals("-seed")) seed = Long.parseLong(args[++i]);
+			else if(args[i].equals("-trace")) trace = true;
+			else if(args[i].equals("-record")) record = args[++i];
+			else if(args[i].equals("-dump")) dump = true;
+			else if(args[i].equals("-restore")) restore = args[++i];
+			else if(args[i].equals("-checkpoint")) checkpoint = args[++i];
+			else pcs[count++] = Integer.parseInt(args[i]);
+		}
+
+		int[] initialPCs = new int[count];
+		System.arraycopy(pcs, 0, initialPCs, 0, count);
+
+		MemoryImage image;
+		if(args[0].equals("test")){
+			image = new MemoryImage();
+			TestProgram.write(image);
+		}
+		else image = MemoryImageCache.get(new File(args[0]));
+
+		SystemSimulator simulator = new SystemSimulator(image, initialPCs,
+				ArbitrationPolicies.create(policy, count, weights, slots, seed));
+
+		if(restore!=null){
+			Checkpoint.read(new File(restore)).load(CHECKPOINT_SECTION, simulator);
+			System.out.println("resumed from "+restore+" at cycle "+simulator.getCycle());
+		}
+
+		final BusTraceWriter recorder = record==null ? null : new BusTraceWriter(new File(record));
+
+		if(trace){
+			simulator.setBusListener(new BusListener(){
+
+				public void addressDriven(long cycle, int master, int address){
+					System.out.println(cycle+" A "+master+" "+address);
+					if(recorder!=null) recorder.addressDriven(cycle, master, address);
+				}
+
+				public void dataDriven(long cycle, int master, int data){
+					System.out.println(cycle+" D "+master+" "+data);
+					if(recorder!=null) recorder.dataDriven(cycle, master, data);
+				}
+			});
+		}
+		else if(recorder!=null) simulator.setBusListener(recorder);
+
+		long start = System.nanoTime();
+		long simulated = simulator.run(cycles);
+		long elapsed = System.nanoTime() - start;
+
+		if(recorder!=null){
+			recorder.close();
+			System.out.println(recorder.getBeats()+" beats recorded to "+record);
+		}
+
+		if(checkpoint!=null){
+			Checkpoint saved = new Checkpoint(simulator.getCycle());
+			saved.save(CHECKPOINT_SECTION, simulator);
+			saved.write(new File(checkpoint));
+			System.out.println("checkpoint saved to "+checkpoint+" at cycle "+simulator.getCycle());
+		}
+
+		if(dump){
+			new MemoryDump(Channels.newChannel(System.out)).writeAll(simulator.getMemory());
+			System.out.flush();
+		}
+
+		for(int i=0;i<count;i++){
+			System.out.println("master "+i+": "+simulator.grantCounts[i]+" grants, "+simulator.waitCycles[i]+" wait cycles");
+		}
+		System.out.println(simulator.completedTransactions+" transactions, "+simulator.busyCycles+"/"+simulator.cycle
+				+" busy cycles ("+Math.round(simulator.getUtilisation()*1000)/10.0+"% utilisation)"
+				+(simulator.isHalted() ? ", halted" : ""));
+		System.out.println(simulated+" cycles simulated in "+elapsed/1000000+" ms");
+	}
+
+
+	private static int[] parseInts(String list){
+
+		String[] values = list.split(",");
+		int[] ints = new int[values.length];
+		for(int i=0;i<values.length;i++) ints[i] = Integer.parseInt(values[i].trim());
+		return ints;
+	}
+
+}
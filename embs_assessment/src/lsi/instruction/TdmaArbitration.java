@@ -0,0 +1,37 @@
+package lsi.instruction;
+
+/*
+ * 
+ * TDMA arbitration: each clock cycle is a slot, owned by the master given in the slot table (slots[cycle % slots.length]).
+ * Only the owner of the current slot can be granted the bus; slots whose owner is not requesting are left idle.
+ * A slot set to -1 is owned by no master.
+ * 
+ */
+
+public class TdmaArbitration implements ArbitrationPolicy {
+
+	protected final int[] slots;
+
+	public TdmaArbitration(int[] slots){
+
+		if(slots.length == 0) throw new IllegalArgumentException("TDMA slot table is empty");
+		this.slots = slots.clone();
+	}
+
+	public void initialize(int masters){
+
+		for(int i=0;i<slots.length;i++){
+			if(slots[i] < -1 || slots[i] >= masters){
+				throw new IllegalArgumentException("TDMA slot " + i + " owned by unknown master " + slots[i]);
+			}
+		}
+	}
+
+	public int arbitrate(RequestMask requests, long cycle){
+
+		int owner = slots[(int)(cycle % slots.length)];
+		if(owner != -1 && requests.get(owner)) return owner;
+		return -1;
+	}
+
+}
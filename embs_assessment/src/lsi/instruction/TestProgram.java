@@ -0,0 +1,53 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Test program loaded by MemoryController when its memory file is set to "test", available to offline tools as well
+ * (see lsi.instruction.SystemSimulator).
+ * 
+ * Two loops, at 0 and 100, each reading data, executing, writing and jumping to the other.
+ * 
+ */
+
+public class TestProgram {
+
+	private TestProgram(){
+	}
+
+
+	public static void write(MemoryImage memory){
+
+		memory.set(0, Instruction.READ, 41260, 10, -1);  		//READ 10
+		memory.set(1, Instruction.READ, 41204, 11, -1);  		//READ 11
+		memory.set(2, Instruction.EXECUTE, 8240, -1, 1);  	//EXECUTE 1
+		memory.set(3, Instruction.WRITE, 4096, 21, -1);  		//WRITE  on 21
+		memory.set(4, Instruction.READ, 41218, 12, -1);  		//READ 12
+		memory.set(5, Instruction.WRITE, 4122, 22, -1);  		//WRITE  on 22
+		memory.set(6, Instruction.JUMP, 61444, 100, -1);  		//JUMP to 100
+
+
+		memory.set(10, -1, 910, -1, -1); 						// data: 910
+		memory.set(11, -1, 911, -1, -1); 						// data: 911
+		memory.set(12, -1, 912, -1, -1); 						// data: 912
+
+
+
+		memory.set(100, Instruction.READ, 44011, 110, -1);  		//READ 110
+		memory.set(101, Instruction.READ, 44012, 111, -1);  		//READ 111
+		memory.set(102, Instruction.EXECUTE, 8844, -1, 1); 	 	//EXECUTE 1
+		memory.set(103, Instruction.WRITE, 5189, 23, -1);  	//WRITE  on 23
+		memory.set(104, Instruction.READ, 44011, 112, -1);  		//READ 112
+		memory.set(105, Instruction.WRITE, 5189, 24, -1);  	//WRITE  on 24
+		memory.set(106, Instruction.EXECUTE, 8333, -1, 1000);  	//EXECUTE 1000
+		memory.set(107, Instruction.JUMP, 61444, 0,-1);  		//JUMP to 0
+
+		memory.set(110, -1, 1910, -1, -1); 						// data: 1910
+		memory.set(111, -1, 1911, -1, -1); 						// data: 1911
+		memory.set(112, -1, 1912, -1, -1); 						// data: 1912
+
+
+
+
+	}
+
+}
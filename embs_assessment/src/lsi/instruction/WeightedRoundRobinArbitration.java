@@ -0,0 +1,61 @@
+package lsi.instruction;
+
+/*
+ * 
+ * Weighted round-robin arbitration: as round-robin, but master i keeps the bus for up to weights[i] consecutive
+ * grants while it keeps requesting, before the next requesting master in turn is served.
+ * 
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class WeightedRoundRobinArbitration implements ArbitrationPolicy, Checkpointable {
+
+	protected final int[] weights;
+	protected int current, credit;
+
+	public WeightedRoundRobinArbitration(int[] weights){
+
+		for(int i=0;i<weights.length;i++){
+			if(weights[i] < 1) throw new IllegalArgumentException("weight of master " + i + " must be positive");
+		}
+		this.weights = weights.clone();
+	}
+
+	public void initialize(int masters){
+
+		if(weights.length < masters){
+			throw new IllegalArgumentException(masters + " masters but only " + weights.length + " weights");
+		}
+		current = masters - 1;
+		credit = 0;
+	}
+
+	public int arbitrate(RequestMask requests, long cycle){
+
+		if(credit > 0 && requests.get(current)){ // current master still has grants left in its turn
+			credit--;
+			return current;
+		}
+
+		int i = requests.nextSetBitCyclic(current + 1);
+		if(i != -1){
+			current = i;
+			credit = weights[i] - 1; // this grant uses the first one
+		}
+		return i;
+	}
+
+	public void saveState(DataOutputStream out) throws IOException{
+		out.writeInt(current);
+		out.writeInt(credit);
+	}
+
+	public void loadState(DataInputStream in) throws IOException{
+		current = in.readInt();
+		credit = in.readInt();
+	}
+
+}
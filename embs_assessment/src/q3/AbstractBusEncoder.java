@@ -0,0 +1,66 @@
+//Y3606797
+package q3;
+
+/**
+ * Base class for bus encoders, handles the bus width and the running transition count.
+ */
+public abstract class AbstractBusEncoder implements BusEncoder {
+
+    /**
+     * Widest bus supported: words are held in a long, whose sign bit is left free, as negative values stand for a
+     * bus carrying no word (see {@link BusEncoders#encode(BusEncoder[], long)}).
+     */
+    public static final int MAX_WIDTH = 63;
+
+    protected final int width;
+    protected final long mask;
+
+    private long totalTransitions;
+
+    /**
+     * @param width the number of data lines of the bus, between 1 and {@value #MAX_WIDTH}.
+     */
+    protected AbstractBusEncoder(int width) {
+        if (width < 1 || width > MAX_WIDTH)
+            throw new IllegalArgumentException("bus width must be between 1 and " + MAX_WIDTH + ", got " + width);
+
+        this.width = width;
+        this.mask = (1L << width) - 1;
+    }
+
+    @Override
+    public final int encode(long word) {
+        int transitions = drive(word & mask);
+        totalTransitions += transitions;
+        return transitions;
+    }
+
+    /**
+     * Updates the line state for a new word.
+     * @param word the unencoded word, already masked to the bus width.
+     * @return the number of line transitions caused by this word.
+     */
+    protected abstract int drive(long word);
+
+    @Override
+    public void reset() {
+        totalTransitions = 0;
+    }
+
+    @Override
+    public long getTotalTransitions() {
+        return totalTransitions;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the number of differing bits between two bus words.
+     */
+    public static int hammingDistance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
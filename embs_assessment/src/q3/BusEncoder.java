@@ -0,0 +1,41 @@
+//Y3606797
+package q3;
+
+/**
+ * A low power coding scheme for a bus, used to count the bit transitions it causes.
+ * <p>
+ * Implementations keep the state of the bus lines they drive, including any extra control lines the scheme needs,
+ * so that feeding them the sequence of words carried by the bus yields the number of transitions on the encoded bus.
+ * <p>
+ * New schemes can be added by implementing this interface (usually by extending {@link AbstractBusEncoder}) and
+ * registering them in {@link BusEncoders#create(String, int)}.
+ */
+public interface BusEncoder {
+
+    /**
+     * Drives a new word onto the bus.
+     * @param word the unencoded word, bits above the bus width are ignored.
+     * @return the number of line transitions caused by this word, control lines included.
+     */
+    int encode(long word);
+
+    /**
+     * Sets all lines back to 0 and clears the transition count.
+     */
+    void reset();
+
+    /**
+     * @return the total number of transitions since the last reset.
+     */
+    long getTotalTransitions();
+
+    /**
+     * @return the number of data lines of the bus.
+     */
+    int getWidth();
+
+    /**
+     * @return the specification this encoder was created from, see {@link BusEncoders#create(String, int)}.
+     */
+    String getName();
+}
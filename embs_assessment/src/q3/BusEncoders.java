@@ -0,0 +1,90 @@
+//Y3606797
+package q3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates bus encoders from textual specifications, as used by the encodings parameter of {@link TransitionCounter}.
+ * <p>
+ * A specification is a scheme name, optionally followed by a colon and an integer argument:
+ * <ul>
+ * <li>{@code none}: no coding, baseline</li>
+ * <li>{@code invert} or {@code invert:k}: bus-invert, with k sub-buses each with its own invert line (default 1),
+ * counted with the legacy model of {@link BusInvertEncoder}</li>
+ * <li>{@code invert-driven} or {@code invert-driven:k}: as {@code invert}, counted on the lines as driven</li>
+ * <li>{@code t0} or {@code t0:s}: T0 coding for address buses, with in-sequence stride s (default 1)</li>
+ * <li>{@code gray}: Gray coding</li>
+ * </ul>
+ */
+public final class BusEncoders {
+
+    public static final String NONE = "none";
+    public static final String INVERT = "invert";
+    public static final String INVERT_DRIVEN = "invert-driven";
+    public static final String T0 = "t0";
+    public static final String GRAY = "gray";
+
+    private BusEncoders() {
+    }
+
+    /**
+     * Creates a single encoder.
+     * @param spec the encoder specification.
+     * @param width the number of data lines of the bus.
+     * @return a new encoder, with all lines at 0.
+     */
+    public static BusEncoder create(String spec, int width) {
+        String name = spec.trim().toLowerCase();
+        int argument = -1;
+
+        int colon = name.indexOf(':');
+        if (colon >= 0) {
+            try {
+                argument = Integer.parseInt(name.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid argument in bus encoding \"" + spec + "\"");
+            }
+            name = name.substring(0, colon).trim();
+        }
+
+        if (name.equals(NONE) && argument == -1) return new UnencodedBusEncoder(width);
+        if (name.equals(INVERT)) return new BusInvertEncoder(width, argument == -1 ? 1 : argument, true);
+        if (name.equals(INVERT_DRIVEN)) return new BusInvertEncoder(width, argument == -1 ? 1 : argument, false);
+        if (name.equals(T0)) return new T0Encoder(width, argument == -1 ? 1 : argument);
+        if (name.equals(GRAY) && argument == -1) return new GrayEncoder(width);
+
+        throw new IllegalArgumentException("unknown bus encoding \"" + spec + "\"");
+    }
+
+    /**
+     * Creates one encoder per entry of a comma-separated list of specifications.
+     * @param specs the encoder specifications, e.g. {@code "none, invert, invert:4, t0"}.
+     * @param width the number of data lines of the bus.
+     * @return the encoders, in the order they are listed.
+     */
+    public static List<BusEncoder> createAll(String specs, int width) {
+        List<BusEncoder> encoders = new ArrayList<BusEncoder>();
+        for (String spec : specs.split(",")) {
+            if (!spec.trim().isEmpty()) encoders.add(create(spec, width));
+        }
+        return encoders;
+    }
+
+    /**
+     * Drives a word carried by the bus onto every encoder, unless it is a bus state carrying no value.
+     * @param encoders the encoders of the bus.
+     * @param word the unencoded word, or a negative value for a bus state carrying none (bus not driven, or invalid bits).
+     * @return true if the word caused at least one transition on any of the encoders.
+     */
+    public static boolean encode(BusEncoder[] encoders, long word) {
+        //invalid bus states carry no value to compare against
+        if (word < 0) return false;
+
+        boolean changed = false;
+        for (BusEncoder encoder : encoders) {
+            if (encoder.encode(word) != 0) changed = true;
+        }
+        return changed;
+    }
+}
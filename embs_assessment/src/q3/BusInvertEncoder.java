@@ -0,0 +1,173 @@
+//Y3606797
+package q3;
+
+/**
+ * Counts bit transitions on a bus driven with the bus-invert low power coding scheme.
+ * <p>
+ * The encoder keeps the state of the bus lines and of the extra invert line. If more than half of the lines would
+ * toggle, the word is sent inverted and the invert line is raised, otherwise it is sent as is and the invert line is
+ * lowered. Two counting models are offered:
+ * <ul>
+ * <li>legacy ({@code invert}), the model TransitionCounter has always used: each word is compared against the previous
+ * unencoded word, and an inverted word is charged the inverted lines plus one for the invert line, whatever its
+ * previous state. All existing results were counted this way</li>
+ * <li>driven ({@code invert-driven}): each word is compared against the lines as actually driven, inverted or not,
+ * and the invert line is only charged when it toggles</li>
+ * </ul>
+ * <p>
+ * The bus can be partitioned into several sub-buses of (nearly) equal width, each with its own invert line and
+ * taking its own decision, which works better than a single invert line on wide buses.
+ * <p>
+ * Has no Ptolemy dependencies, so it can be used by actors as well as by offline tools.
+ */
+public class BusInvertEncoder extends AbstractBusEncoder {
+
+    /**
+     * Lines of each sub-bus within the bus word.
+     */
+    private final long[] partitionMasks;
+
+    /**
+     * Per the paper attached to the assessment, defines n/2 of each sub-bus for determining when to invert its bits.
+     */
+    private final int[] invertThresholds;
+
+    /**
+     * Whether transitions are counted with the legacy model, see above.
+     */
+    private final boolean legacy;
+
+    private long busLines;
+
+    /**
+     * Previous unencoded word, compared against by the legacy model.
+     */
+    private long previousWord;
+
+    /**
+     * Bit i holds the invert line of sub-bus i.
+     */
+    private long invertLines;
+
+    /**
+     * Creates a legacy encoder with a single invert line.
+     * @param width the number of data lines of the bus.
+     */
+    public BusInvertEncoder(int width) {
+        this(width, 1);
+    }
+
+    /**
+     * Creates a legacy encoder.
+     * @param width the number of data lines of the bus.
+     * @param partitions the number of sub-buses, each with its own invert line.
+     */
+    public BusInvertEncoder(int width, int partitions) {
+        this(width, partitions, true);
+    }
+
+    /**
+     * @param width the number of data lines of the bus.
+     * @param partitions the number of sub-buses, each with its own invert line.
+     * @param legacy true to count transitions with the legacy model, false to count them on the lines as driven.
+     */
+    public BusInvertEncoder(int width, int partitions, boolean legacy) {
+        super(width);
+        this.legacy = legacy;
+        if (partitions < 1 || partitions > width)
+            throw new IllegalArgumentException("partitions must be between 1 and the bus width, got " + partitions);
+
+        partitionMasks = new long[partitions];
+        invertThresholds = new int[partitions];
+
+        int low = 0;
+        for (int i = 0; i < partitions; i++) {
+            //spread the remainder over the lowest sub-buses
+            int size = width / partitions + (i < width % partitions ? 1 : 0);
+            partitionMasks[i] = ((1L << size) - 1) << low;
+            invertThresholds[i] = size / 2;
+            low += size;
+        }
+    }
+
+    @Override
+    protected int drive(long word) {
+        if (legacy) return driveLegacy(word);
+
+        long newInvertLines = 0;
+
+        for (int i = 0; i < partitionMasks.length; i++) {
+            long partition = partitionMasks[i];
+            if (hammingDistance(busLines & partition, word & partition) > invertThresholds[i]) {
+                word ^= partition;
+                newInvertLines |= 1L << i;
+            }
+        }
+
+        int transitions = hammingDistance(busLines, word) + hammingDistance(invertLines, newInvertLines);
+
+        busLines = word;
+        invertLines = newInvertLines;
+        return transitions;
+    }
+
+    private int driveLegacy(long word) {
+        long newInvertLines = 0;
+        long driven = word;
+        int transitions = 0;
+
+        for (int i = 0; i < partitionMasks.length; i++) {
+            long partition = partitionMasks[i];
+            int distance = hammingDistance(previousWord & partition, word & partition);
+            if (distance > invertThresholds[i]) {
+                //the inverted lines, plus the invert line
+                transitions += Long.bitCount(partition) - distance + 1;
+                driven ^= partition;
+                newInvertLines |= 1L << i;
+            } else {
+                transitions += distance;
+            }
+        }
+
+        previousWord = word;
+        busLines = driven;
+        invertLines = newInvertLines;
+        return transitions;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        busLines = 0;
+        previousWord = 0;
+        invertLines = 0;
+    }
+
+    /**
+     * @return the current state of the data lines, as actually driven (i.e. possibly inverted).
+     */
+    public long getBusLines() {
+        return busLines;
+    }
+
+    /**
+     * @return whether any of the invert lines is currently raised.
+     */
+    public boolean isInverted() {
+        return invertLines != 0;
+    }
+
+    public int getPartitions() {
+        return partitionMasks.length;
+    }
+
+    public boolean isLegacy() {
+        return legacy;
+    }
+
+    @Override
+    public String getName() {
+        String name = legacy ? BusEncoders.INVERT : BusEncoders.INVERT_DRIVEN;
+        return partitionMasks.length == 1 ? name : name + ":" + partitionMasks.length;
+    }
+}
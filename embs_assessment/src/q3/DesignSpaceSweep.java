@@ -0,0 +1,350 @@
+//Y3606797
+package q3;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import lsi.instruction.ArbitrationPolicies;
+import lsi.instruction.BusListener;
+import lsi.instruction.ContentionAnalysis;
+import lsi.instruction.MemoryImage;
+import lsi.instruction.MemoryImageCache;
+import lsi.instruction.ProgramAnalysis;
+import lsi.instruction.SystemSimulator;
+import lsi.instruction.TestProgram;
+
+/**
+ * Runs the processor/bus/memory system of {@code lsi.instruction} for every point of a grid of configurations, and
+ * aggregates the results into CSV.
+ * <p>
+ * A point is a set of initial PCs (one per processor, so it also sets the processor count) and an arbitration policy.
+ * Every point is simulated with {@link SystemSimulator} for the same number of cycles, starting from its own copy of
+ * the same memory image, while the sub-buses are fed to one {@link BusEncoder} per coding scheme; all schemes are thus
+ * evaluated over the same traffic in a single simulation, as {@link TransitionCounter} does.
+ * <p>
+ * Points are independent and run concurrently on a fixed pool of threads, by default one per core.
+ * <p>
+ * Points can be pruned before simulating them, out of the bus demand predicted by {@link ContentionAnalysis}
+ * from the program alone, e.g. to skip the configurations whose bus is bound to saturate.
+ * <p>
+ * Can be run from the command line:
+ * <pre>
+ * java q3.DesignSpaceSweep &lt;memory file | test&gt; -pcs "0,100;0,100,0,100" [-arbitration "fixed priority;round robin"]
+ *      [-encodings "none,invert,invert:4"] [-width 16] [-cycles n] [-threads n] [-max-demand d] [-out file.csv]
+ * </pre>
+ * where PC sets and policies are separated by semicolons, and the results go to the standard output by default.
+ * With {@code -max-demand}, points whose predicted bus demand exceeds {@code d} (1 for a saturated bus) are not
+ * simulated.
+ */
+public class DesignSpaceSweep {
+
+    /**
+     * A configuration of the system.
+     */
+    public static final class Point {
+
+        private final int[] initialPCs;
+        private final String arbitration;
+
+        public Point(int[] initialPCs, String arbitration) {
+            this.initialPCs = initialPCs.clone();
+            this.arbitration = arbitration;
+        }
+
+        public int[] getInitialPCs() {
+            return initialPCs.clone();
+        }
+
+        public String getArbitration() {
+            return arbitration;
+        }
+    }
+
+    /**
+     * The outcome of simulating one point.
+     */
+    public static final class Result {
+
+        private final Point point;
+        private final long cycles, busyCycles, transactions;
+        private final long[] waitCycles;
+        private final long[] addressTransitions, dataTransitions;
+
+        private Result(Point point, SystemSimulator simulator, List<BusEncoder> address, List<BusEncoder> data) {
+            this.point = point;
+            cycles = simulator.getCycle();
+            busyCycles = simulator.getBusyCycles();
+            transactions = simulator.getCompletedTransactions();
+            waitCycles = simulator.getWaitCycles();
+            addressTransitions = totals(address);
+            dataTransitions = totals(data);
+        }
+
+        public Point getPoint() {
+            return point;
+        }
+
+        public long getCycles() {
+            return cycles;
+        }
+
+        public long getBusyCycles() {
+            return busyCycles;
+        }
+
+        public long getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return the cycles each master spent requesting the bus without being granted.
+         */
+        public long[] getWaitCycles() {
+            return waitCycles.clone();
+        }
+
+        /**
+         * @return the transitions on the address sub-bus, per coding scheme.
+         */
+        public long[] getAddressTransitions() {
+            return addressTransitions.clone();
+        }
+
+        /**
+         * @return the transitions on the data sub-bus, per coding scheme.
+         */
+        public long[] getDataTransitions() {
+            return dataTransitions.clone();
+        }
+
+        private static long[] totals(List<BusEncoder> encoders) {
+            long[] totals = new long[encoders.size()];
+            for (int i = 0; i < totals.length; i++) totals[i] = encoders.get(i).getTotalTransitions();
+            return totals;
+        }
+    }
+
+    private final MemoryImage image;
+    private final long cycles;
+    private final String encodings;
+    private final int width;
+
+    /**
+     * @param image the initial memory contents, shared by all points and never written.
+     * @param cycles the number of cycles simulated for every point (fewer if the system halts).
+     * @param encodings the comma-separated coding schemes, see {@link BusEncoders#createAll(String, int)}.
+     * @param width the width of both sub-buses.
+     */
+    public DesignSpaceSweep(MemoryImage image, long cycles, String encodings, int width) {
+        if (!image.isFrozen()) {
+            //simulations copy the image concurrently, which is only safe once it can no longer change
+            image = new MemoryImage(image);
+            image.freeze();
+        }
+        this.image = image;
+        this.cycles = cycles;
+        this.encodings = encodings;
+        this.width = width;
+        BusEncoders.createAll(encodings, width); //fails early on invalid specifications
+    }
+
+    /**
+     * @return every combination of the given PC sets and arbitration policies, policies varying fastest.
+     */
+    public static List<Point> grid(List<int[]> pcSets, List<String> policies) {
+        List<Point> points = new ArrayList<Point>();
+        for (int[] pcs : pcSets) {
+            for (String policy : policies) {
+                points.add(new Point(pcs, policy));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * @return the points whose bus demand, as predicted by {@link ContentionAnalysis}, does not exceed the given one,
+     * in the same order.
+     */
+    public List<Point> prune(List<Point> points, double maxDemand) {
+        List<Point> kept = new ArrayList<Point>();
+        for (Point point : points) {
+            ContentionAnalysis analysis = new ContentionAnalysis(new ProgramAnalysis(image, point.initialPCs),
+                    point.arbitration, null, null);
+            if (analysis.getBusDemand() <= maxDemand) kept.add(point);
+        }
+        return kept;
+    }
+
+    /**
+     * Simulates a single point, on the calling thread.
+     */
+    public Result simulate(Point point) {
+        int[] pcs = point.initialPCs;
+        SystemSimulator simulator = new SystemSimulator(image, pcs,
+                ArbitrationPolicies.create(point.arbitration, pcs.length, null, null, 0));
+
+        final List<BusEncoder> address = BusEncoders.createAll(encodings, width);
+        final List<BusEncoder> data = BusEncoders.createAll(encodings, width);
+        final BusEncoder[] addressEncoders = address.toArray(new BusEncoder[0]);
+        final BusEncoder[] dataEncoders = data.toArray(new BusEncoder[0]);
+
+        simulator.setBusListener(new BusListener() {
+
+            public void addressDriven(long cycle, int master, int value) {
+                BusEncoders.encode(addressEncoders, value);
+            }
+
+            public void dataDriven(long cycle, int master, int value) {
+                BusEncoders.encode(dataEncoders, value);
+            }
+        });
+
+        simulator.run(cycles);
+        return new Result(point, simulator, address, data);
+    }
+
+    /**
+     * Simulates all points concurrently.
+     * @param threads the number of points simulated at the same time.
+     * @return the results, in the order of the points.
+     */
+    public List<Result> run(List<Point> points, int threads) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final Point point : points) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    public Result call() {
+                        return simulate(point);
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<Result>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes one line per result, after a header line.
+     * Wait cycles of the individual masters are separated by semicolons within a single column.
+     */
+    public void writeCsv(List<Result> results, Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        List<BusEncoder> schemes = BusEncoders.createAll(encodings, width);
+
+        out.print("processors,initial PCs,arbitration,cycles,busy cycles,transactions,utilisation,wait cycles,wait cycles per master");
+        for (BusEncoder scheme : schemes) out.print(",address " + scheme.getName() + ",data " + scheme.getName());
+        out.println();
+
+        for (Result result : results) {
+            long totalWait = 0;
+            for (long wait : result.waitCycles) totalWait += wait;
+
+            out.print(result.point.initialPCs.length + "," + join(result.point.initialPCs) + "," + result.point.arbitration
+                    + "," + result.cycles + "," + result.busyCycles + "," + result.transactions
+                    + "," + (result.cycles == 0 ? 0 : (double) result.busyCycles / result.cycles)
+                    + "," + totalWait + "," + join(result.waitCycles));
+            for (int i = 0; i < schemes.size(); i++) {
+                out.print("," + result.addressTransitions[i] + "," + result.dataTransitions[i]);
+            }
+            out.println();
+        }
+        out.flush();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        if (args.length < 1) {
+            System.err.println("usage: DesignSpaceSweep <memory file | test> -pcs \"0,100;...\" [-arbitration \"policy;...\"]"
+                    + " [-encodings \"none,invert,...\"] [-width 16] [-cycles n] [-threads n] [-max-demand d] [-out file.csv]");
+            System.exit(1);
+        }
+
+        List<int[]> pcSets = new ArrayList<int[]>();
+        List<String> policies = new ArrayList<String>();
+        String encodings = BusEncoders.NONE + "," + BusEncoders.INVERT;
+        int width = 16;
+        long cycles = 1000000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = null;
+        double maxDemand = Double.POSITIVE_INFINITY;
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-pcs")) {
+                for (String set : args[++i].split(";")) pcSets.add(parseInts(set));
+            } else if (args[i].equals("-arbitration")) {
+                for (String policy : args[++i].split(";")) policies.add(policy.trim());
+            } else if (args[i].equals("-encodings")) encodings = args[++i];
+            else if (args[i].equals("-width")) width = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-cycles")) cycles = Long.parseLong(args[++i]);
+            else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-max-demand")) maxDemand = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-out")) out = args[++i];
+            else throw new IllegalArgumentException("unknown option " + args[i]);
+        }
+        if (pcSets.isEmpty()) throw new IllegalArgumentException("no initial PCs given");
+        if (policies.isEmpty()) policies.add(ArbitrationPolicies.FIXED_PRIORITY);
+
+        MemoryImage image;
+        if (args[0].equals("test")) {
+            image = new MemoryImage();
+            TestProgram.write(image);
+        } else image = MemoryImageCache.get(new File(args[0]));
+
+        DesignSpaceSweep sweep = new DesignSpaceSweep(image, cycles, encodings, width);
+        List<Point> points = grid(pcSets, policies);
+        if (maxDemand != Double.POSITIVE_INFINITY) {
+            int all = points.size();
+            points = sweep.prune(points, maxDemand);
+            System.err.println((all - points.size()) + " of " + all + " points pruned, predicted bus demand above " + maxDemand);
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = sweep.run(points, threads);
+        long elapsed = System.nanoTime() - start;
+
+        Writer writer = out == null ? new OutputStreamWriter(System.out) : new FileWriter(out);
+        sweep.writeCsv(results, writer);
+        if (out != null) writer.close();
+
+        System.err.println(points.size() + " points simulated in " + elapsed / 1000000 + " ms on " + threads + " threads");
+    }
+
+    private static int[] parseInts(String list) {
+        String[] values = list.split(",");
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) ints[i] = Integer.parseInt(values[i].trim());
+        return ints;
+    }
+
+    /**
+     * Joins values with semicolons, so that they fit in a single CSV column.
+     */
+    private static String join(int[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < values.length; i++) joined.append(i == 0 ? "" : ";").append(values[i]);
+        return joined.toString();
+    }
+
+    private static String join(long[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < values.length; i++) joined.append(i == 0 ? "" : ";").append(values[i]);
+        return joined.toString();
+    }
+}
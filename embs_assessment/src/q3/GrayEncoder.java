@@ -0,0 +1,33 @@
+//Y3606797
+package q3;
+
+/**
+ * Counts bit transitions on a bus driven with Gray coding, under which consecutive values differ in a single bit.
+ */
+public class GrayEncoder extends AbstractBusEncoder {
+
+    private long busLines;
+
+    public GrayEncoder(int width) {
+        super(width);
+    }
+
+    @Override
+    protected int drive(long word) {
+        long gray = word ^ (word >>> 1);
+        int transitions = hammingDistance(busLines, gray);
+        busLines = gray;
+        return transitions;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        busLines = 0;
+    }
+
+    @Override
+    public String getName() {
+        return BusEncoders.GRAY;
+    }
+}
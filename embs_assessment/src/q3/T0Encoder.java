@@ -0,0 +1,62 @@
+//Y3606797
+package q3;
+
+/**
+ * Counts bit transitions on an address bus driven with the T0 low power coding scheme.
+ * <p>
+ * An extra INC line is raised whenever the new address is the previous one plus a fixed stride, in which case the
+ * bus lines are left untouched and the receiver computes the address itself. Otherwise the address is driven as is
+ * and the INC line is lowered. Sequential instruction fetches thus cause no transitions on the bus lines at all.
+ */
+public class T0Encoder extends AbstractBusEncoder {
+
+    private final long stride;
+
+    private long busLines;
+    private long previousAddress;
+    private int incLine;
+
+    public T0Encoder(int width) {
+        this(width, 1);
+    }
+
+    /**
+     * @param width the number of data lines of the bus.
+     * @param stride the difference between consecutive addresses of an in-sequence access.
+     */
+    public T0Encoder(int width, int stride) {
+        super(width);
+        if (stride < 1)
+            throw new IllegalArgumentException("stride must be positive, got " + stride);
+        this.stride = stride;
+    }
+
+    @Override
+    protected int drive(long word) {
+        int newIncLine = word == ((previousAddress + stride) & mask) ? 1 : 0;
+        int transitions = incLine ^ newIncLine;
+
+        //bus lines keep their value while in sequence
+        if (newIncLine == 0) {
+            transitions += hammingDistance(busLines, word);
+            busLines = word;
+        }
+
+        previousAddress = word;
+        incLine = newIncLine;
+        return transitions;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        busLines = 0;
+        previousAddress = 0;
+        incLine = 0;
+    }
+
+    @Override
+    public String getName() {
+        return stride == 1 ? BusEncoders.T0 : BusEncoders.T0 + ":" + stride;
+    }
+}
@@ -0,0 +1,94 @@
+//Y3606797
+package q3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import lsi.instruction.BusListener;
+import lsi.instruction.BusTraceReader;
+
+/**
+ * Counts the bit transitions caused by recorded bus traffic under several coding schemes, without running the
+ * processor/bus/memory model again.
+ * <p>
+ * Traces are recorded by {@code lsi.instruction.SingleSharedMemoryBus} (see its trace file parameter) or by
+ * {@code lsi.instruction.SystemSimulator}, and hold the values driven on the address and data sub-buses. Each sub-bus
+ * is fed to its own set of encoders, one per scheme, so that a new scheme is evaluated in a single streaming pass over
+ * the trace.
+ * <p>
+ * Can be run from the command line:
+ * <pre>
+ * java q3.TraceAnalyser &lt;trace file&gt;... [-encodings "none,invert,invert:4"] [-width 16]
+ * </pre>
+ * which prints, for every trace, the transitions of every scheme on both sub-buses.
+ */
+public final class TraceAnalyser {
+
+    private TraceAnalyser() {
+    }
+
+    /**
+     * Feeds a trace to the given encoders.
+     * @param trace the trace file.
+     * @param address the encoders of the address sub-bus.
+     * @param data the encoders of the data sub-bus.
+     * @return the number of beats read.
+     * @throws IOException if the trace cannot be read or is not a bus trace.
+     */
+    public static long analyse(File trace, List<BusEncoder> address, List<BusEncoder> data) throws IOException {
+        final BusEncoder[] addressEncoders = address.toArray(new BusEncoder[0]);
+        final BusEncoder[] dataEncoders = data.toArray(new BusEncoder[0]);
+
+        BusTraceReader reader = new BusTraceReader(trace);
+        try {
+            return reader.replay(new BusListener() {
+
+                public void addressDriven(long cycle, int master, int value) {
+                    BusEncoders.encode(addressEncoders, value);
+                }
+
+                public void dataDriven(long cycle, int master, int value) {
+                    BusEncoders.encode(dataEncoders, value);
+                }
+            });
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceAnalyser <trace file>... [-encodings \"none,invert,...\"] [-width 16]");
+            System.exit(1);
+        }
+
+        String encodings = BusEncoders.NONE + "," + BusEncoders.INVERT;
+        int width = 16;
+        List<File> traces = new ArrayList<File>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-encodings")) encodings = args[++i];
+            else if (args[i].equals("-width")) width = Integer.parseInt(args[++i]);
+            else traces.add(new File(args[i]));
+        }
+
+        for (File trace : traces) {
+            List<BusEncoder> address = BusEncoders.createAll(encodings, width);
+            List<BusEncoder> data = BusEncoders.createAll(encodings, width);
+
+            long start = System.nanoTime();
+            long beats = analyse(trace, address, data);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(trace + ": " + beats + " beats, analysed in " + elapsed / 1000000 + " ms");
+            for (int i = 0; i < address.size(); i++) {
+                long a = address.get(i).getTotalTransitions();
+                long d = data.get(i).getTotalTransitions();
+                System.out.println("  " + address.get(i).getName() + ": " + a + " address, " + d + " data, "
+                        + (a + d) + " total transitions");
+            }
+        }
+    }
+}
@@ -4,9 +4,15 @@ package q3;
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.util.Time;
+import ptolemy.data.ArrayToken;
+import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
+import ptolemy.data.LongToken;
 import ptolemy.data.StringToken;
+import ptolemy.data.Token;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.ArrayType;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
@@ -14,44 +20,56 @@ import ptolemy.kernel.util.NameDuplicationException;
 
 /**
  * A Ptolemy actor which counts the number of bit transitions on a shared bus.
+ * The input accepts either raw bus words as IntTokens or binary strings as StringTokens.
+ * <p>
+ * Several low power coding schemes can be evaluated in one pass over the same traffic, see the encodings parameter
+ * and {@link BusEncoders}. The output port carries the total of the first scheme, the totals port those of all of them.
+ * Totals are counted as longs: the output port is an int port, as it has always been, and saturates at
+ * {@link Integer#MAX_VALUE}, while the totals port carries the exact counts as LongTokens.
+ * <p>
+ * The actor only fires when the bus state changes. Totals are sent whenever they change, or, if the reporting interval
+ * parameter is positive, periodically at that interval of model time.
  */
 public class TransitionCounter extends TypedAtomicActor {
 
     /**
-     * Constant to define the width of the bus.
+     * Constant to define the default width of the bus.
      */
     private static final int PROCESSOR_BUS_WIDTH = 16;
 
+    private TypedIOPort input;
+    private TypedIOPort output;
+    private TypedIOPort totals;
+
     /**
-     * Per the paper attached to the assessment, this constant defines n/2 for determining when to invert the bits of the bus.
+     * A parameter to toggle the 9 bus-invert low power coding scheme, used when no encodings are given.
      */
-    private static final int POWER_SAVE_INVERT_CONSTANT = PROCESSOR_BUS_WIDTH / 2;
+    private Parameter invert;
 
     /**
-     * Constant to define the initial bus state, a string of size
-     * {@value #PROCESSOR_BUS_WIDTH} of 0's.
+     * A parameter holding the comma-separated list of coding schemes to evaluate, e.g. "none, invert, invert:4, t0".
      */
-    private static final String PROCESSOR_BUS_INITIAL_STATE = String.format("%0" + PROCESSOR_BUS_WIDTH + "d", 0);
+    private StringParameter encodings;
+
+    private Parameter busWidth;
 
     /**
-     * Period of the clock as defined in the Ptolemy model.
+     * A parameter holding the period at which totals are sent, in seconds of model time; 0 sends them on every change.
      */
-    private static final double CLOCK_PERIOD = 0.00000001;
+    private Parameter reportingInterval;
 
-    private TypedIOPort input;
-    private TypedIOPort output;
+    private double interval;
+    private Time nextReport;
 
     /**
-     * A parameter to toggle the 9 bus-invert low power coding scheme.
+     * One encoder per coding scheme being evaluated, each tracking the state of its own bus lines.
      */
-    private Parameter invert;
-
-    private String prevNumber;
+    private BusEncoder[] encoders;
 
     /**
      * Running total of the number of transitions on the shared bus.
      */
-    private int totalTransitions;
+    private long totalTransitions;
 
     public TransitionCounter(CompositeEntity container, String name)
             throws NameDuplicationException, IllegalActionException {
@@ -59,91 +77,116 @@ public class TransitionCounter extends TypedAtomicActor {
 
         input = new TypedIOPort(this, "input", true, false);
         output = new TypedIOPort(this, "output", false, true);
+        totals = new TypedIOPort(this, "totals", false, true);
 
-        input.setTypeEquals(BaseType.STRING);
+        //no type constraint on input, it resolves to either the int or the string bus state
         output.setTypeEquals(BaseType.INT);
+        totals.setTypeEquals(new ArrayType(BaseType.LONG));
 
         invert = new Parameter(this,"invert");
         invert.setExpression("");
+
+        encodings = new StringParameter(this, "encodings");
+        encodings.setExpression("");
+
+        busWidth = new Parameter(this, "bus width");
+        busWidth.setTypeEquals(BaseType.INT);
+        busWidth.setExpression(Integer.toString(PROCESSOR_BUS_WIDTH));
+
+        reportingInterval = new Parameter(this, "reporting interval");
+        reportingInterval.setTypeEquals(BaseType.DOUBLE);
+        reportingInterval.setExpression("0.0");
     }
 
     @Override
     public void initialize() throws IllegalActionException {
-        prevNumber = PROCESSOR_BUS_INITIAL_STATE;
         totalTransitions = 0;
-        //fire immediately
-        scheduleFireTime(getDirector().getModelTime());
+        createEncoders();
+
+        interval = ((DoubleToken) reportingInterval.getToken()).doubleValue();
+        if (interval < 0) {
+            throw new IllegalActionException(this, "reporting interval cannot be negative");
+        }
+        if (interval > 0) {
+            //first report immediately, then on every interval
+            nextReport = getDirector().getModelTime();
+            scheduleFireTime(nextReport);
+        }
     }
 
     @Override
     public void fire() throws IllegalActionException {
-        Time ptolemyTime = getDirector().getModelTime();
-        String curNumber = "";
+        boolean changed = false;
 
         while (input.hasToken(0)) {
-            curNumber = ((StringToken) input.get(0)).stringValue();
-
-            //determine value of the invert param
-            boolean invertFlag = !invert.getExpression().isEmpty();
-            totalTransitions += calcHammingDistance(curNumber, prevNumber, invertFlag);
-            //update value of prevNumber for next iteration
-            prevNumber = curNumber;
+            if (BusEncoders.encode(encoders, toBusWord(input.get(0)))) changed = true;
+            totalTransitions = encoders[0].getTotalTransitions();
         }
 
-        //fire on the clock period.
-        scheduleFireTime(ptolemyTime.add(CLOCK_PERIOD));
-
-        if (curNumber.isEmpty() && totalTransitions != -1) {
-            output.send(0, new IntToken(totalTransitions));
+        if (interval > 0) {
+            Time ptolemyTime = getDirector().getModelTime();
+            //only report on the scheduled firings, not on input-driven ones.
+            if (ptolemyTime.compareTo(nextReport) >= 0) {
+                sendTotals();
+                nextReport = nextReport.add(interval);
+                scheduleFireTime(nextReport);
+            }
+        } else if (changed) {
+            sendTotals();
         }
     }
 
-    //returns the value of the hamming distance of two strings of bits.
-    private int calcHammingDistance(String curNumber, String prevNumber) {
-        return calcHammingDistance(curNumber, prevNumber, false);
-    }
-
     /**
-     * Overloaded method to determine the hamming distance of two strings of bits.
-     * @param curNumber the current bus value.
-     * @param prevNumber the previous bus value with which to compare the current.
-     * @param invertFlag a boolean value indicating whether to use the low power invert coding scheme.
-     * @return the hamming distance.
+     * Creates the encoders from the encodings parameter, or from the invert parameter if no encodings are given.
+     * @throws IllegalActionException if the bus width or an encoding is invalid.
      */
-    private int calcHammingDistance(String curNumber, String prevNumber, boolean invertFlag) {
-        if (invertFlag) {
-            curNumber += "0";
-            prevNumber += "0";
+    private void createEncoders() throws IllegalActionException {
+        String specs = encodings.stringValue();
+        if (specs.trim().isEmpty()) {
+            //determine value of the invert param
+            specs = invert.getExpression().isEmpty() ? BusEncoders.NONE : BusEncoders.INVERT;
         }
 
-        //calculate hamming distance by simple comparing each string position.
-        int hammingDistance = 0;
-        if (curNumber.length() == prevNumber.length()) {
-            for (int i = 0; i < curNumber.length(); i++) {
-                if (curNumber.charAt(i) != prevNumber.charAt(i)) {
-                    hammingDistance += 1;
-                }
-            }
+        int width = ((IntToken) busWidth.getToken()).intValue();
+        try {
+            encoders = BusEncoders.createAll(specs, width).toArray(new BusEncoder[0]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalActionException(this, e.getMessage());
         }
+        if (encoders.length == 0) {
+            throw new IllegalActionException(this, "no bus encoding given");
+        }
+    }
 
-        //as per paper if hamming distance > n/2 we append a 1 bit to the bus and invert the value
-        if (hammingDistance > POWER_SAVE_INVERT_CONSTANT && invertFlag) {
-            prevNumber += "1";
-            String invertedCurNumber = invertBitString(curNumber);
-            invertedCurNumber += "1";
-            return calcHammingDistance(invertedCurNumber, prevNumber);
-        } else {
-            return hammingDistance;
+    /**
+     * Sends the running total of the first encoder on the output port, and of every encoder on the totals port,
+     * in the order they are listed in the encodings parameter.
+     * @throws IllegalActionException
+     */
+    private void sendTotals() throws IllegalActionException {
+        output.send(0, new IntToken((int) Math.min(totalTransitions, Integer.MAX_VALUE)));
+
+        Token[] values = new Token[encoders.length];
+        for (int i = 0; i < encoders.length; i++) {
+            values[i] = new LongToken(encoders[i].getTotalTransitions());
         }
+        totals.send(0, new ArrayToken(values));
     }
 
     /**
-     * A method to flip the bit values in a string of bits.
-     * @param bitString the input bit string.
-     * @return the inverted bit string.
+     * Converts a bus state token to the bus word it represents.
+     * @param token either an IntToken holding the word or a StringToken holding it in binary.
+     * @return the bus word, or -1 if the token does not hold a valid bus state.
      */
-    private String invertBitString(String bitString) {
-        return bitString.replaceAll("0", "x").replaceAll("1", "0").replaceAll("x", "1");
+    private long toBusWord(Token token) {
+        if (token instanceof IntToken) {
+            return ((IntToken) token).intValue();
+        }
+        try {
+            return Long.parseLong(((StringToken) token).stringValue(), 2);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     private void scheduleFireTime(Time nextFireTime) throws IllegalActionException {
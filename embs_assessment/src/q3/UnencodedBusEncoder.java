@@ -0,0 +1,32 @@
+//Y3606797
+package q3;
+
+/**
+ * Baseline with no coding scheme, words are driven onto the bus as they are.
+ */
+public class UnencodedBusEncoder extends AbstractBusEncoder {
+
+    private long busLines;
+
+    public UnencodedBusEncoder(int width) {
+        super(width);
+    }
+
+    @Override
+    protected int drive(long word) {
+        int transitions = hammingDistance(busLines, word);
+        busLines = word;
+        return transitions;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        busLines = 0;
+    }
+
+    @Override
+    public String getName() {
+        return BusEncoders.NONE;
+    }
+}